@@ -0,0 +1,417 @@
+package com.zarbosoft.coroutines;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Build step run before instrumentation.  Finds which methods declaring SuspendExecution can actually reach a
+ * suspension, and writes the classes containing them as an Ant includes file so only those are instrumented, plus a
+ * report of what was chosen and why.  Only used with the suspendability profile; the default build instruments every
+ * class.
+ * <p>
+ * A method suspends if it declares SuspendExecution and calls a method that suspends.  Abstract methods and methods of
+ * classes outside the analyzed directory that declare SuspendExecution (like Coroutine.yield) are assumed to suspend.
+ * Virtual calls consider every override in the analyzed classes, and are assumed to suspend if the target could be
+ * overridden by a class that isn't analyzed (for example a test subclass of a main class, or a library user's).
+ * Recursion alone doesn't make a method suspend.
+ * <p>
+ * Also warns when a method that doesn't declare SuspendExecution calls one that suspends - a suspension there fails at
+ * runtime.
+ * <p>
+ * Instrumentation is per class, so every suspendable method in a chosen class is still instrumented; classes whose
+ * suspendable methods never suspend are left alone.
+ *
+ * <pre>
+ * java com.zarbosoft.coroutines.SuspendabilityAnalyzer CLASS_DIR INCLUDES_OUT REPORT_OUT
+ * </pre>
+ * <p>
+ * Other classes are looked up on the classpath.
+ */
+public class SuspendabilityAnalyzer {
+	private final static String SUSPEND_EXECUTION = "com/zarbosoft/coroutinescore/SuspendExecution";
+
+	private final Map<String, ClassInfo> classes = new HashMap<>();
+	private final Map<String, ClassInfo> analyzed = new TreeMap<>();
+	private final Map<String, List<ClassInfo>> subclasses = new HashMap<>();
+	private final List<String> warnings = new ArrayList<>();
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 3)
+			throw new IllegalArgumentException("Usage: SuspendabilityAnalyzer CLASS_DIR INCLUDES_OUT REPORT_OUT");
+		final SuspendabilityAnalyzer analyzer = new SuspendabilityAnalyzer();
+		analyzer.load(Paths.get(args[0]));
+		analyzer.analyze();
+		analyzer.write(Paths.get(args[1]), Paths.get(args[2]));
+	}
+
+	private void load(final Path root) throws IOException {
+		try (final Stream<Path> files = Files.walk(root)) {
+			for (final Path file : files
+					.filter(p -> p.toString().endsWith(".class"))
+					.filter(p -> !p.getFileName().toString().equals("module-info.class"))
+					.collect(Collectors.toList())) {
+				try (final InputStream stream = Files.newInputStream(file)) {
+					final ClassInfo info = read(stream, true);
+					info.file = root.relativize(file).toString().replace('\\', '/');
+					analyzed.put(info.name, info);
+				}
+			}
+		}
+		for (final ClassInfo info : analyzed.values()) {
+			for (final String parent : supertypes(info))
+				subclasses.computeIfAbsent(parent, k -> new ArrayList<>()).add(info);
+		}
+	}
+
+	private ClassInfo read(final InputStream stream, final boolean code) throws IOException {
+		final ClassInfo info = new ClassInfo();
+		new ClassReader(stream).accept(new ClassVisitor(Opcodes.ASM9) {
+			@Override
+			public void visit(
+					final int version,
+					final int access,
+					final String name,
+					final String signature,
+					final String superName,
+					final String[] interfaces
+			) {
+				info.name = name;
+				info.access = access;
+				info.superName = superName;
+				info.interfaces = interfaces == null ? new String[0] : interfaces;
+				info.analyzed = code;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(
+					final int access,
+					final String name,
+					final String desc,
+					final String signature,
+					final String[] exceptions
+			) {
+				final MethodInfo method = new MethodInfo();
+				method.owner = info;
+				method.name = name;
+				method.desc = desc;
+				method.access = access;
+				method.declaresSuspend = exceptions != null && Arrays.asList(exceptions).contains(SUSPEND_EXECUTION);
+				info.methods.put(name + desc, method);
+				if (!code)
+					return null;
+				return new MethodVisitor(Opcodes.ASM9) {
+					@Override
+					public void visitMethodInsn(
+							final int opcode, final String owner, final String name, final String desc, final boolean itf
+					) {
+						if (owner.startsWith("["))
+							return;
+						method.calls.add(new Call(opcode, owner, name, desc));
+					}
+				};
+			}
+		}, code ? ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES : ClassReader.SKIP_CODE);
+		classes.put(info.name, info);
+		return info;
+	}
+
+	/**
+	 * @param name Internal name
+	 * @return null if not found
+	 */
+	private ClassInfo lookup(final String name) {
+		if (classes.containsKey(name))
+			return classes.get(name);
+		try (final InputStream stream = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+			if (stream == null) {
+				classes.put(name, null);
+				return null;
+			}
+			return read(stream, false);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Set<String> supertypes(final ClassInfo info) {
+		final Set<String> out = new HashSet<>();
+		final List<String> pending = new ArrayList<>();
+		pending.add(info.superName);
+		pending.addAll(Arrays.asList(info.interfaces));
+		while (!pending.isEmpty()) {
+			final String name = pending.remove(pending.size() - 1);
+			if (name == null || !out.add(name))
+				continue;
+			final ClassInfo parent = lookup(name);
+			if (parent == null)
+				continue;
+			pending.add(parent.superName);
+			pending.addAll(Arrays.asList(parent.interfaces));
+		}
+		return out;
+	}
+
+	/**
+	 * @return The method the call resolves to statically, null if the class or method can't be found.
+	 */
+	private MethodInfo resolve(final String owner, final String key) {
+		final List<String> pending = new ArrayList<>();
+		final Set<String> seen = new HashSet<>();
+		pending.add(owner);
+		while (!pending.isEmpty()) {
+			final String name = pending.remove(0);
+			if (name == null || !seen.add(name))
+				continue;
+			final ClassInfo info = lookup(name);
+			if (info == null)
+				continue;
+			final MethodInfo method = info.methods.get(key);
+			if (method != null)
+				return method;
+			pending.add(info.superName);
+			pending.addAll(Arrays.asList(info.interfaces));
+		}
+		return null;
+	}
+
+	/**
+	 * @return Methods the call may run, null if it can't be resolved.
+	 */
+	private List<MethodInfo> targets(final Call call) {
+		final String key = call.name + call.desc;
+		final MethodInfo resolved = resolve(call.owner, key);
+		if (resolved == null)
+			return lookup(call.owner) == null ? null : new ArrayList<>();
+		final List<MethodInfo> out = new ArrayList<>();
+		out.add(resolved);
+		if (call.virtual()) {
+			for (final ClassInfo sub : subclasses.getOrDefault(call.owner, new ArrayList<>())) {
+				final MethodInfo override = sub.methods.get(key);
+				if (override != null)
+					out.add(override);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return A reason if calling the target may suspend, otherwise null.
+	 */
+	private static String suspendsBecause(final Call call, final MethodInfo target) {
+		if (!target.declaresSuspend)
+			return null;
+		if (!target.owner.analyzed)
+			return "external suspendable";
+		if ((target.access & Opcodes.ACC_ABSTRACT) != 0)
+			return "abstract suspendable";
+		if ((target.access & Opcodes.ACC_NATIVE) != 0)
+			return "native suspendable";
+		if (target.reason != null)
+			return "suspends";
+		if (call.virtual() && overridable(target))
+			return "may be overridden outside the analyzed classes";
+		return null;
+	}
+
+	/**
+	 * @return true if a class that isn't analyzed could override the method.
+	 */
+	private static boolean overridable(final MethodInfo method) {
+		if ((method.access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL)) != 0)
+			return false;
+		if (method.name.equals("<init>"))
+			return false;
+		return (method.owner.access & Opcodes.ACC_FINAL) == 0;
+	}
+
+	private void analyze() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (final ClassInfo info : analyzed.values()) {
+				for (final MethodInfo method : info.methods.values()) {
+					if (!method.declaresSuspend || method.reason != null)
+						continue;
+					if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0)
+						continue;
+					for (final Call call : method.calls) {
+						final List<MethodInfo> targets = targets(call);
+						if (targets == null) {
+							method.reason = String.format("calls %s (class not found)", call);
+							break;
+						}
+						for (final MethodInfo target : targets) {
+							final String because = suspendsBecause(call, target);
+							if (because != null) {
+								method.reason = String.format("calls %s (%s)", target, because);
+								break;
+							}
+						}
+						if (method.reason != null)
+							break;
+					}
+					if (method.reason != null)
+						changed = true;
+				}
+			}
+		}
+		for (final ClassInfo info : analyzed.values()) {
+			for (final MethodInfo method : info.methods.values()) {
+				if (method.declaresSuspend)
+					continue;
+				for (final Call call : method.calls) {
+					final List<MethodInfo> targets = targets(call);
+					if (targets == null)
+						continue;
+					for (final MethodInfo target : targets) {
+						if (suspendsBecause(call, target) == null)
+							continue;
+						warnings.add(String.format(
+								"%s calls %s which may suspend, but does not declare SuspendExecution",
+								method,
+								target
+						));
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean suspends(final MethodInfo method) {
+		return method.reason != null || (method.declaresSuspend &&
+				(method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0);
+	}
+
+	private void write(final Path includes, final Path report) throws IOException {
+		if (includes.getParent() != null)
+			Files.createDirectories(includes.getParent());
+		if (report.getParent() != null)
+			Files.createDirectories(report.getParent());
+		final Map<ClassInfo, List<MethodInfo>> chosen = new LinkedHashMap<>();
+		int suspendable = 0;
+		int suspending = 0;
+		for (final ClassInfo info : analyzed.values()) {
+			final List<MethodInfo> methods = info.methods
+					.values()
+					.stream()
+					.filter(m -> m.declaresSuspend)
+					.collect(Collectors.toList());
+			suspendable += methods.size();
+			final long count = methods.stream().filter(SuspendabilityAnalyzer::suspends).count();
+			suspending += count;
+			if (count > 0)
+				chosen.put(info, methods);
+		}
+		try (final PrintWriter out = new PrintWriter(Files.newBufferedWriter(includes))) {
+			for (final ClassInfo info : chosen.keySet())
+				out.println(info.file);
+		}
+		try (final PrintWriter out = new PrintWriter(Files.newBufferedWriter(report))) {
+			out.format(
+					"# %d of %d classes instrumented; %d of %d suspendable methods reach a suspension\n",
+					chosen.size(),
+					analyzed.size(),
+					suspending,
+					suspendable
+			);
+			for (final ClassInfo info : analyzed.values()) {
+				final List<MethodInfo> methods = info.methods
+						.values()
+						.stream()
+						.filter(m -> m.declaresSuspend)
+						.collect(Collectors.toList());
+				if (methods.isEmpty())
+					continue;
+				out.format("%s %s\n", chosen.containsKey(info) ? "instrument" : "skip", info.name);
+				for (final MethodInfo method : methods) {
+					final String why;
+					if (method.reason != null)
+						why = method.reason;
+					else if (suspends(method))
+						why = "abstract, implementations may suspend";
+					else
+						why = "never suspends";
+					out.format("\t%s%s: %s\n", method.name, method.desc, why);
+				}
+			}
+			for (final String warning : warnings)
+				out.format("warning %s\n", warning);
+		}
+		for (final String warning : warnings)
+			System.err.format("WARNING: %s\n", warning);
+		System.out.format("Instrumenting %d of %d classes, see %s\n", chosen.size(), analyzed.size(), report);
+	}
+
+	private static class ClassInfo {
+		String name;
+		int access;
+		String superName;
+		String[] interfaces;
+		boolean analyzed;
+		String file;
+		final Map<String, MethodInfo> methods = new LinkedHashMap<>();
+	}
+
+	private static class MethodInfo {
+		ClassInfo owner;
+		String name;
+		String desc;
+		int access;
+		boolean declaresSuspend;
+		final List<Call> calls = new ArrayList<>();
+		/**
+		 * Why the method suspends, null if it doesn't (yet).
+		 */
+		String reason;
+
+		@Override
+		public String toString() {
+			return owner.name + "." + name + desc;
+		}
+	}
+
+	private static class Call {
+		final int opcode;
+		final String owner;
+		final String name;
+		final String desc;
+
+		Call(final int opcode, final String owner, final String name, final String desc) {
+			this.opcode = opcode;
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+		}
+
+		boolean virtual() {
+			return opcode == Opcodes.INVOKEVIRTUAL || opcode == Opcodes.INVOKEINTERFACE;
+		}
+
+		@Override
+		public String toString() {
+			return owner + "." + name + desc;
+		}
+	}
+}
@@ -0,0 +1,401 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread pool for blocking work (JDBC, blocking SDKs, etc.) that sizes itself.
+ * <p>
+ * Work is queued in a bounded FIFO queue.  When the oldest queued work has waited longer than growAfter a thread is
+ * added, up to maxThreads, then another after each further growAfter the queue is still stuck.  Threads idle for
+ * keepAlive exit, down to minThreads.  Work submitted while the queue is full is rejected with
+ * RejectedExecutionException.
+ * <p>
+ * Work is tagged with a type (like "jdbc"), and queue wait and run times are recorded per type; see report.
+ * <p>
+ * Use unblock to offload work and resume the coroutine in another executor, or pass the pool to Cohelp.unblock to
+ * resume in the pool.
+ */
+public class BlockingPool extends AbstractExecutorService {
+	public final static String DEFAULT_TYPE = "default";
+	private static BlockingPool common = null;
+
+	private final int minThreads;
+	private final int maxThreads;
+	private final int capacity;
+	private final long growAfterNanos;
+	private final long keepAliveNanos;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition workAvailable = lock.newCondition();
+	private final Condition queueStuck = lock.newCondition();
+	private final Condition terminated = lock.newCondition();
+	private final ArrayDeque<Task> queue = new ArrayDeque<>();
+	private final ConcurrentHashMap<String, Type> types = new ConcurrentHashMap<>();
+	private final AtomicInteger threadIndex = new AtomicInteger();
+	private final Thread monitor;
+	private int threads = 0;
+	private int idle = 0;
+	private long grown = 0;
+	private boolean shutdown = false;
+
+	/**
+	 * @param minThreads Threads kept while idle.
+	 * @param maxThreads Hard cap on threads.
+	 * @param capacity   Maximum queued (not running) work.
+	 * @param growAfter  Add a thread when queued work has waited this long.
+	 * @param keepAlive  Threads above minThreads exit after being idle this long.
+	 * @param unit
+	 */
+	public BlockingPool(
+			final int minThreads,
+			final int maxThreads,
+			final int capacity,
+			final long growAfter,
+			final long keepAlive,
+			final TimeUnit unit
+	) {
+		if (minThreads < 0)
+			throw new IllegalArgumentException("minThreads must not be negative");
+		if (maxThreads < 1 || maxThreads < minThreads)
+			throw new IllegalArgumentException("maxThreads must be at least 1 and minThreads");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		this.capacity = capacity;
+		this.growAfterNanos = Math.max(1, unit.toNanos(growAfter));
+		this.keepAliveNanos = Math.max(1, unit.toNanos(keepAlive));
+		lock.lock();
+		try {
+			for (int i = 0; i < minThreads; ++i)
+				spawn();
+		} finally {
+			lock.unlock();
+		}
+		monitor = new Thread(this::monitor, "blocking-pool-monitor");
+		monitor.setDaemon(true);
+		monitor.start();
+	}
+
+	/**
+	 * @return A shared pool: 0 to 256 threads, 10000 queued, grows after 10ms, threads exit after 60s idle.
+	 */
+	public static synchronized BlockingPool common() {
+		if (common == null)
+			common = new BlockingPool(0, 256, 10000, 10, 60000, TimeUnit.MILLISECONDS);
+		return common;
+	}
+
+	public <T> T unblock(final ExecutorService executor, final Blocking<T> work) throws SuspendExecution {
+		return unblock(executor, DEFAULT_TYPE, work);
+	}
+
+	/**
+	 * Run blocking work in the pool.
+	 *
+	 * @param executor Coroutine is resumed in this executor after the work is complete.
+	 * @param type     Work type, for statistics.
+	 * @param work
+	 * @return Return value from work.  Raises RejectedExecutionException if the queue is full.  Errors from work are
+	 * fatal to executor (see Cohelp.fatal).
+	 * @throws SuspendExecution
+	 */
+	public <T> T unblock(
+			final ExecutorService executor, final String type, final Blocking<T> work
+	) throws SuspendExecution {
+		return Cohelp.unblockOn(command -> execute(type, command), executor, work);
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		execute(DEFAULT_TYPE, command);
+	}
+
+	/**
+	 * @param type    Work type, for statistics.
+	 * @param command
+	 */
+	public void execute(final String type, final Runnable command) {
+		final Type stats = types.computeIfAbsent(type, k -> new Type());
+		lock.lock();
+		try {
+			if (shutdown)
+				throw new RejectedExecutionException("Blocking pool is shut down");
+			if (queue.size() >= capacity) {
+				stats.rejected.increment();
+				throw new RejectedExecutionException("Blocking pool queue is full");
+			}
+			stats.submitted.increment();
+			queue.add(new Task(stats, command, System.nanoTime()));
+			if (idle >= queue.size())
+				workAvailable.signal();
+			else if (threads == 0)
+				spawn();
+			if (queue.size() == 1)
+				queueStuck.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private void spawn() {
+		threads += 1;
+		final Thread thread = new Thread(this::work, "blocking-pool-" + threadIndex.getAndIncrement());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private void exit() {
+		threads -= 1;
+		if (threads == 0 && shutdown)
+			terminated.signalAll();
+	}
+
+	private void work() {
+		while (true) {
+			final Task task;
+			lock.lock();
+			try {
+				Task next;
+				while ((next = queue.poll()) == null) {
+					if (shutdown) {
+						exit();
+						return;
+					}
+					idle += 1;
+					long left;
+					try {
+						left = workAvailable.awaitNanos(keepAliveNanos);
+					} catch (final InterruptedException e) {
+						left = 0;
+					} finally {
+						idle -= 1;
+					}
+					if (left <= 0 && queue.isEmpty() && threads > minThreads) {
+						exit();
+						return;
+					}
+				}
+				task = next;
+			} finally {
+				lock.unlock();
+			}
+			final long start = System.nanoTime();
+			task.type.wait.record(start - task.queued);
+			task.type.running.incrementAndGet();
+			try {
+				task.command.run();
+			} catch (final Throwable e) {
+				Cohelp.logger.error("Uncaught error in blocking pool", e);
+			} finally {
+				task.type.running.decrementAndGet();
+				task.type.run.record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Add threads while the oldest queued work is waiting too long.
+	 */
+	private void monitor() {
+		lock.lock();
+		try {
+			while (!shutdown) {
+				final Task head = queue.peek();
+				try {
+					if (head == null) {
+						queueStuck.await();
+						continue;
+					}
+					final long waited = System.nanoTime() - head.queued;
+					if (waited < growAfterNanos) {
+						queueStuck.awaitNanos(growAfterNanos - waited);
+						continue;
+					}
+					if (threads < maxThreads) {
+						spawn();
+						grown += 1;
+					}
+					// Give the pool a chance to catch up before growing again
+					queueStuck.awaitNanos(growAfterNanos);
+				} catch (final InterruptedException e) {
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Current number of threads.
+	 */
+	public int getThreads() {
+		lock.lock();
+		try {
+			return threads;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Work waiting for a thread.
+	 */
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Threads added because work waited too long.
+	 */
+	public long getGrown() {
+		lock.lock();
+		try {
+			return grown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Per work type: submitted, rejected and running counts, and queue wait and run times in microseconds.
+	 */
+	public String report() {
+		final StringBuilder out = new StringBuilder();
+		for (final Map.Entry<String, Type> entry : new TreeMap<>(types).entrySet()) {
+			final Type type = entry.getValue();
+			out.append(String.format(
+					"%s: submitted %d rejected %d running %d\n",
+					entry.getKey(),
+					type.submitted.sum(),
+					type.rejected.sum(),
+					type.running.get()
+			));
+			line(out, "wait", type.wait);
+			line(out, "run", type.run);
+		}
+		return out.toString();
+	}
+
+	private static void line(final StringBuilder out, final String label, final Histogram histogram) {
+		out.append(String.format(
+				"  %s: count %d mean %.1f p50 %d p99 %d max %d\n",
+				label,
+				histogram.count(),
+				histogram.mean() / 1000,
+				histogram.percentile(50) / 1000,
+				histogram.percentile(99) / 1000,
+				histogram.max() / 1000
+		));
+	}
+
+	@Override
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			workAvailable.signalAll();
+			queueStuck.signalAll();
+			if (threads == 0)
+				terminated.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> out = new ArrayList<>();
+		lock.lock();
+		try {
+			Task task;
+			while ((task = queue.poll()) != null)
+				out.add(task.command);
+		} finally {
+			lock.unlock();
+		}
+		shutdown();
+		return out;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		lock.lock();
+		try {
+			return shutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isTerminated() {
+		lock.lock();
+		try {
+			return shutdown && threads == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long left = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (!(shutdown && threads == 0)) {
+				if (left <= 0)
+					return false;
+				left = terminated.awaitNanos(left);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class Type {
+		final LongAdder submitted = new LongAdder();
+		final LongAdder rejected = new LongAdder();
+		final AtomicInteger running = new AtomicInteger();
+		final Histogram wait = new Histogram();
+		final Histogram run = new Histogram();
+	}
+
+	private static class Task {
+		final Type type;
+		final Runnable command;
+		final long queued;
+
+		Task(final Type type, final Runnable command, final long queued) {
+			this.type = type;
+			this.command = command;
+			this.queued = queued;
+		}
+	}
+}
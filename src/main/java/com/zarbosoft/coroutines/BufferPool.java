@@ -0,0 +1,56 @@
+package com.zarbosoft.coroutines;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of equally sized direct buffers.  Direct buffers are expensive to allocate and free, so I/O code should
+ * acquire them here and release them when done rather than allocating per operation.
+ */
+public class BufferPool {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+	private final int bufferSize;
+	private final int maxPooled;
+
+	/**
+	 * @param bufferSize Capacity of each buffer.
+	 * @param maxPooled  Released buffers beyond this many are dropped rather than kept.
+	 */
+	public BufferPool(final int bufferSize, final int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return A cleared buffer.
+	 */
+	public ByteBuffer acquire() {
+		lock.lock();
+		final ByteBuffer buffer = free.poll();
+		lock.unlock();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the pool.  The buffer must not be used after this.
+	 *
+	 * @param buffer A buffer acquired from this pool.
+	 */
+	public void release(final ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || !buffer.isDirect())
+			throw new IllegalArgumentException("Buffer is not from this pool");
+		lock.lock();
+		if (free.size() < maxPooled)
+			free.push(buffer);
+		lock.unlock();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
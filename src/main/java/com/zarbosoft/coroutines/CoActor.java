@@ -0,0 +1,159 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Owns a state object and applies messages to it one at a time, in the order they were sent.  Use instead of wrapping
+ * every access to the state in a CriticalSection.
+ * <p>
+ * The mailbox is lock-free.  Sending to an idle actor schedules its coroutine once; it then handles up to batchSize
+ * messages before going back to the executor (so other work gets a turn) and parks when the mailbox is empty.
+ * Messages may suspend, which suspends the actor until they continue.
+ *
+ * @param <S>
+ */
+public class CoActor<S> {
+	public final static int DEFAULT_BATCH_SIZE = 64;
+
+	private final ExecutorService executor;
+	private final S state;
+	private final int batchSize;
+	private final ConcurrentLinkedQueue<Message<S>> mailbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private final Coroutine coroutine = new Coroutine(this::run);
+
+	/**
+	 * @param executor The actor runs in this executor.
+	 * @param state
+	 */
+	public CoActor(final ExecutorService executor, final S state) {
+		this(executor, state, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param executor  The actor runs in this executor.
+	 * @param state
+	 * @param batchSize Messages handled per scheduling.
+	 */
+	public CoActor(final ExecutorService executor, final S state, final int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		this.executor = executor;
+		this.state = state;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Send a message without waiting for it to be handled.  Errors (including Errors) raised by the message are logged.
+	 *
+	 * @param message
+	 */
+	public void tell(final SuspendableConsumer<S> message) {
+		send(new Message<S>() {
+			@Override
+			public void handle(final S state) throws SuspendExecution {
+				try {
+					message.apply(state);
+				} catch (final RuntimeException | Error e) {
+					Cohelp.logger.error("Uncaught error in actor message", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Send a message and suspend until it has been handled.
+	 *
+	 * @param executor Coroutine is resumed in this executor.
+	 * @param message
+	 * @return The message's return.  Errors (including Errors) raised by the message are raised here.
+	 * @throws SuspendExecution
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> R ask(
+			final ExecutorService executor, final SuspendableFunction<S, R> message
+	) throws SuspendExecution {
+		final Coroutine asker = Coroutine.getActiveCoroutine();
+		final Object result = Coroutine.yieldThen(() -> {
+			send(new Message<S>() {
+				@Override
+				public void handle(final S state) throws SuspendExecution {
+					final R out;
+					try {
+						out = message.apply(state);
+					} catch (final RuntimeException e) {
+						resume(executor, () -> asker.processThrow(e));
+						return;
+					} catch (final Error e) {
+						// processThrow only takes RuntimeExceptions; raised in ask instead
+						resume(executor, () -> asker.process(new Failed(e)));
+						return;
+					}
+					resume(executor, () -> asker.process(out));
+				}
+			});
+		});
+		if (result instanceof Failed)
+			throw ((Failed) result).error;
+		return (R) result;
+	}
+
+	private void send(final Message<S> message) {
+		mailbox.add(message);
+		if (running.compareAndSet(false, true))
+			schedule();
+	}
+
+	private void schedule() {
+		resume(executor, coroutine::process);
+	}
+
+	private static void resume(final ExecutorService executor, final Runnable process) {
+		executor.execute(() -> {
+			try {
+				process.run();
+			} catch (final Throwable e) {
+				Cohelp.fatal(executor, e);
+			}
+		});
+	}
+
+	private void run() throws SuspendExecution {
+		while (true) {
+			int handled = 0;
+			Message<S> message;
+			while (handled < batchSize && (message = mailbox.poll()) != null) {
+				message.handle(state);
+				handled += 1;
+			}
+			if (handled == batchSize) {
+				// Let other work in the executor run
+				Coroutine.yieldThen(this::schedule);
+				continue;
+			}
+			Coroutine.yieldThen(() -> {
+				running.set(false);
+				// A message may have arrived between the last poll and clearing running
+				if (!mailbox.isEmpty() && running.compareAndSet(false, true))
+					schedule();
+			});
+		}
+	}
+
+	@FunctionalInterface
+	private interface Message<S> {
+		void handle(S state) throws SuspendExecution;
+	}
+
+	private static class Failed {
+		final Error error;
+
+		Failed(final Error error) {
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A loading cache for coroutines.  The first miss for a key runs the loader in the calling coroutine; other coroutines
+ * asking for the key while the load is in flight suspend until it finishes and share its result (or error).  Failed
+ * loads aren't cached.
+ * <p>
+ * Loaded entries are evicted least recently used first once there are more than maxSize, and expire a fixed time after
+ * they were loaded.  Loads in flight don't count towards maxSize and are never evicted, so a key only ever has one
+ * load running.  Expiry is checked when an entry is read.  With refresh-ahead, reading an entry older than the refresh
+ * time returns it immediately and reloads it in the background, so hot keys don't all miss at once when they expire.
+ * <p>
+ * To load with blocking code use Cohelp.unblock in the loader.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class CoCache<K, V> {
+	private final ExecutorService executor;
+	private final SuspendableFunction<K, V> loader;
+	private final long expireNanos;
+	private final long refreshNanos;
+	private final LongSupplier clock;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<K, Slot<V>> entries;
+	/**
+	 * Loads in flight, kept out of entries so eviction can't drop them.
+	 */
+	private final HashMap<K, Slot<V>> loading = new HashMap<>();
+	private long hits = 0;
+	private long misses = 0;
+	private long loadFailures = 0;
+	private long evictions = 0;
+	private long refreshes = 0;
+
+	/**
+	 * Entries never expire.
+	 *
+	 * @param executor Waiting coroutines are resumed and background refreshes run in this executor.
+	 * @param maxSize
+	 * @param loader
+	 */
+	public CoCache(final ExecutorService executor, final int maxSize, final SuspendableFunction<K, V> loader) {
+		this(executor, maxSize, 0, 0, TimeUnit.NANOSECONDS, loader);
+	}
+
+	/**
+	 * @param executor Waiting coroutines are resumed and background refreshes run in this executor.
+	 * @param maxSize
+	 * @param expireAfterWrite Entries are reloaded when read this long after being loaded.  0 for never.
+	 * @param refreshAfterWrite Entries are refreshed in the background when read this long after being loaded.  0 for
+	 *                          never.  Should be less than expireAfterWrite.
+	 * @param unit
+	 * @param loader
+	 */
+	public CoCache(
+			final ExecutorService executor,
+			final int maxSize,
+			final long expireAfterWrite,
+			final long refreshAfterWrite,
+			final TimeUnit unit,
+			final SuspendableFunction<K, V> loader
+	) {
+		this(executor, maxSize, unit.toNanos(expireAfterWrite), unit.toNanos(refreshAfterWrite), System::nanoTime, loader);
+	}
+
+	CoCache(
+			final ExecutorService executor,
+			final int maxSize,
+			final long expireNanos,
+			final long refreshNanos,
+			final LongSupplier clock,
+			final SuspendableFunction<K, V> loader
+	) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be at least 1");
+		this.executor = executor;
+		this.loader = loader;
+		this.expireNanos = expireNanos;
+		this.refreshNanos = refreshNanos;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<K, Slot<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, Slot<V>> eldest) {
+				if (size() <= maxSize)
+					return false;
+				evictions += 1;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Get the value for the key, loading it if it's missing or expired.
+	 *
+	 * @param key
+	 * @return The value.
+	 * @throws SuspendExecution
+	 */
+	public V get(final K key) throws SuspendExecution {
+		lock.lock();
+		final long now = clock.getAsLong();
+		final Slot<V> found = entries.get(key);
+		if (found != null && !expired(found, now)) {
+			hits += 1;
+			final boolean refresh = refreshNanos > 0 && !found.refreshing && now - found.written >= refreshNanos;
+			if (refresh) {
+				found.refreshing = true;
+				refreshes += 1;
+			}
+			final V value = found.value;
+			lock.unlock();
+			if (refresh)
+				Cohelp.submit(executor, () -> refresh(key, found));
+			return value;
+		}
+		misses += 1;
+		final Slot<V> inFlight = loading.get(key);
+		if (inFlight != null) {
+			final CompletableFuture<V> future = inFlight.loading;
+			lock.unlock();
+			return Cohelp.unblock(executor, future);
+		}
+		if (found != null)
+			entries.remove(key);
+		final Slot<V> entry = new Slot<>();
+		entry.loading = new CompletableFuture<>();
+		loading.put(key, entry);
+		lock.unlock();
+
+		final V value;
+		try {
+			value = loader.apply(key);
+		} catch (final RuntimeException | Error e) {
+			lock.lock();
+			loadFailures += 1;
+			if (loading.get(key) == entry)
+				loading.remove(key);
+			lock.unlock();
+			entry.loading.completeExceptionally(e);
+			throw e;
+		}
+		lock.lock();
+		final CompletableFuture<V> future = entry.loading;
+		entry.value = value;
+		entry.written = clock.getAsLong();
+		entry.loading = null;
+		// Not if invalidated while loading
+		if (loading.get(key) == entry) {
+			loading.remove(key);
+			entries.put(key, entry);
+		}
+		lock.unlock();
+		future.complete(value);
+		return value;
+	}
+
+	private void refresh(final K key, final Slot<V> entry) throws SuspendExecution {
+		final V value;
+		try {
+			value = loader.apply(key);
+		} catch (final RuntimeException | Error e) {
+			// Keep serving the old value; the next read past the refresh time tries again
+			lock.lock();
+			loadFailures += 1;
+			entry.refreshing = false;
+			lock.unlock();
+			return;
+		}
+		lock.lock();
+		entry.value = value;
+		entry.written = clock.getAsLong();
+		entry.refreshing = false;
+		lock.unlock();
+	}
+
+	private boolean expired(final Slot<V> entry, final long now) {
+		return expireNanos > 0 && now - entry.written >= expireNanos;
+	}
+
+	/**
+	 * Remove the key.  Coroutines waiting on an in-flight load for the key still get its result.
+	 *
+	 * @param key
+	 */
+	public void invalidate(final K key) {
+		lock.lock();
+		entries.remove(key);
+		loading.remove(key);
+		lock.unlock();
+	}
+
+	/**
+	 * @return Number of entries, including expired entries that haven't been read since expiring and loads in flight.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size() + loading.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Reads served from the cache.
+	 */
+	public long getHits() {
+		lock.lock();
+		try {
+			return hits;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Reads that started or waited for a load.
+	 */
+	public long getMisses() {
+		lock.lock();
+		try {
+			return misses;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Loads and refreshes that raised an error.
+	 */
+	public long getLoadFailures() {
+		lock.lock();
+		try {
+			return loadFailures;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Entries removed to stay within maxSize.
+	 */
+	public long getEvictions() {
+		lock.lock();
+		try {
+			return evictions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Background refreshes started.
+	 */
+	public long getRefreshes() {
+		lock.lock();
+		try {
+			return refreshes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class Slot<V> {
+		V value;
+		long written;
+		CompletableFuture<V> loading;
+		boolean refreshing = false;
+	}
+}
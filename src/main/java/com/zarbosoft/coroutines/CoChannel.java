@@ -0,0 +1,298 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue between coroutines.  Senders suspend while the channel is full and receivers suspend while it's
+ * empty.  Items are handed directly to a waiting receiver without being buffered.  Null items aren't allowed.
+ *
+ * @param <T>
+ */
+public class CoChannel<T> {
+	/**
+	 * Returned by timed receives if the time elapses first.
+	 */
+	final static Object TIMEOUT = new Object();
+	private final static Object WAIT = new Object();
+
+	private final ExecutorService executor;
+	private final int capacity;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<T> buffer = new ArrayDeque<>();
+	private final ArrayDeque<Sender> senders = new ArrayDeque<>();
+	private final ArrayDeque<Receiver> receivers = new ArrayDeque<>();
+	private boolean closed = false;
+	private Throwable error = null;
+
+	/**
+	 * @param executor Suspended senders and receivers are resumed in this executor.
+	 * @param capacity Number of items that can be sent before senders suspend.  May be 0.
+	 */
+	public CoChannel(final ExecutorService executor, final int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity must not be negative");
+		this.executor = executor;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Send an item, suspending if the channel is full.
+	 *
+	 * @param item
+	 * @throws SuspendExecution
+	 */
+	public void send(final T item) throws SuspendExecution {
+		if (item == null)
+			throw new NullPointerException();
+		lock.lock();
+		if (closed) {
+			lock.unlock();
+			throw new IllegalStateException("Channel is closed");
+		}
+		Receiver receiver;
+		while ((receiver = receivers.poll()) != null) {
+			if (receiver.claim()) {
+				lock.unlock();
+				receiver.deliver(item, null);
+				return;
+			}
+		}
+		if (buffer.size() < capacity) {
+			buffer.add(item);
+			lock.unlock();
+			return;
+		}
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		Coroutine.yieldThen(() -> {
+			senders.add(new Sender(self, item));
+			lock.unlock();
+		});
+	}
+
+	/**
+	 * Receive an item, suspending if the channel is empty.
+	 *
+	 * @return The next item, or null if the channel is closed and empty.  If the channel was closed with an error, the
+	 * error is raised instead.
+	 * @throws SuspendExecution
+	 */
+	public T receive() throws SuspendExecution {
+		lock.lock();
+		final Object received = receiveLocked();
+		if (received != WAIT)
+			return (T) received;
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			receivers.add(new CoroutineReceiver(self));
+			lock.unlock();
+		});
+	}
+
+	/**
+	 * Like receive, but give up after a time.
+	 *
+	 * @param timer Schedules the timeout.
+	 * @param time
+	 * @param unit
+	 * @return An item, null if the channel is closed and empty, or TIMEOUT.
+	 * @throws SuspendExecution
+	 */
+	Object receive(
+			final ScheduledExecutorService timer, final long time, final TimeUnit unit
+	) throws SuspendExecution {
+		lock.lock();
+		final Object received = receiveLocked();
+		if (received != WAIT)
+			return received;
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		final ScheduledFuture<?>[] timeout = new ScheduledFuture<?>[1];
+		final Object out = Coroutine.yieldThen(() -> {
+			final Receiver receiver = new CoroutineReceiver(self);
+			receivers.add(receiver);
+			timeout[0] = timer.schedule(() -> {
+				lock.lock();
+				final boolean waiting = receivers.remove(receiver);
+				lock.unlock();
+				if (waiting)
+					resume(self, TIMEOUT, null);
+			}, time, unit);
+			lock.unlock();
+		});
+		if (out != TIMEOUT)
+			timeout[0].cancel(false);
+		return out;
+	}
+
+	/**
+	 * Receive without suspending.
+	 *
+	 * @return An item, null if the channel is closed and empty, or WAIT if the channel is empty.
+	 */
+	Object poll() {
+		lock.lock();
+		final Object out = receiveLocked();
+		if (out == WAIT)
+			lock.unlock();
+		return out;
+	}
+
+	/**
+	 * Deliver the next item (or end) to the receiver, immediately if possible.  Used to wait on several sources at
+	 * once (see Select).
+	 *
+	 * @param receiver
+	 */
+	void receive(final Receiver receiver) {
+		lock.lock();
+		if (buffer.isEmpty() && senders.isEmpty() && !closed) {
+			receivers.add(receiver);
+			lock.unlock();
+			return;
+		}
+		if (!receiver.claim()) {
+			lock.unlock();
+			return;
+		}
+		final Object out;
+		try {
+			out = receiveLocked();
+		} catch (final RuntimeException e) {
+			receiver.deliver(null, e);
+			return;
+		}
+		receiver.deliver(out, null);
+	}
+
+	/**
+	 * Stop waiting for an item with a receiver registered with receive.
+	 *
+	 * @param receiver
+	 */
+	void cancel(final Receiver receiver) {
+		lock.lock();
+		receivers.remove(receiver);
+		lock.unlock();
+	}
+
+	static boolean isWait(final Object received) {
+		return received == WAIT;
+	}
+
+	/**
+	 * Must hold lock.  Unlocks unless returning WAIT.
+	 *
+	 * @return An item, null if closed, or WAIT if the receiver needs to wait.
+	 */
+	private Object receiveLocked() {
+		final T item = buffer.poll();
+		final Sender sender = senders.poll();
+		if (item != null) {
+			if (sender != null)
+				buffer.add(sender.item);
+			lock.unlock();
+			if (sender != null)
+				resume(sender.coroutine, null, null);
+			return item;
+		}
+		if (sender != null) {
+			lock.unlock();
+			resume(sender.coroutine, null, null);
+			return sender.item;
+		}
+		if (closed) {
+			final Throwable error = this.error;
+			lock.unlock();
+			if (error != null)
+				throw Cohelp.unwrap(error);
+			return null;
+		}
+		return WAIT;
+	}
+
+	/**
+	 * Mark the end of the items.  Receivers get null once buffered items are consumed.
+	 */
+	public void close() {
+		close(null);
+	}
+
+	/**
+	 * Mark the end of the items with an error.  Receivers get the error once buffered items are consumed.
+	 *
+	 * @param error
+	 */
+	public void close(final Throwable error) {
+		lock.lock();
+		if (closed) {
+			lock.unlock();
+			return;
+		}
+		closed = true;
+		this.error = error;
+		final ArrayDeque<Receiver> claimed = new ArrayDeque<>();
+		Receiver receiver;
+		while ((receiver = receivers.poll()) != null) {
+			if (receiver.claim())
+				claimed.add(receiver);
+		}
+		lock.unlock();
+		while ((receiver = claimed.poll()) != null)
+			receiver.deliver(null, error);
+	}
+
+	private void resume(final Coroutine coroutine, final Object value, final Throwable error) {
+		Cohelp.resume(executor, coroutine, value, error);
+	}
+
+	/**
+	 * Something waiting for an item.
+	 */
+	abstract static class Receiver {
+		/**
+		 * Called with the channel locked before delivering.
+		 *
+		 * @return false if the receiver no longer wants an item.
+		 */
+		boolean claim() {
+			return true;
+		}
+
+		/**
+		 * Called without the channel locked.
+		 *
+		 * @param value An item or null if the channel closed.
+		 * @param error Error the channel was closed with.
+		 */
+		abstract void deliver(Object value, Throwable error);
+	}
+
+	private class CoroutineReceiver extends Receiver {
+		private final Coroutine coroutine;
+
+		CoroutineReceiver(final Coroutine coroutine) {
+			this.coroutine = coroutine;
+		}
+
+		@Override
+		void deliver(final Object value, final Throwable error) {
+			resume(coroutine, value, error);
+		}
+	}
+
+	private class Sender {
+		final Coroutine coroutine;
+		final T item;
+
+		Sender(final Coroutine coroutine, final T item) {
+			this.coroutine = coroutine;
+			this.item = item;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A condition variable for coroutines in a CriticalSection.  Create with CriticalSection.newCondition.
+ * <p>
+ * await leaves the section and suspends until signalled, then waits to re-enter the section behind any coroutines
+ * already waiting.  Since the state may have changed again before it re-enters, check the state in a loop:
+ *
+ * <pre>
+ * section.call(executor, () -&gt; {
+ *     while (queue.isEmpty())
+ *         notEmpty.await(executor);
+ *     return queue.poll();
+ * });
+ * </pre>
+ * <p>
+ * All methods must be called from within the section.
+ */
+public class CoCondition {
+	private final CriticalSection section;
+	private final ArrayDeque<CriticalSection.Waiting> waiters = new ArrayDeque<>();
+
+	CoCondition(final CriticalSection section) {
+		this.section = section;
+	}
+
+	/**
+	 * Leave the section and suspend until signalled and back in the section.
+	 *
+	 * @param executor Coroutine is resumed in this executor.
+	 * @throws SuspendExecution
+	 */
+	public void await(final ExecutorService executor) throws SuspendExecution {
+		section.lock.lock();
+		if (!section.locked) {
+			section.lock.unlock();
+			throw new IllegalStateException("Not in the critical section");
+		}
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		Coroutine.yieldThen(() -> {
+			waiters.add(new CriticalSection.Waiting(executor, coroutine, null));
+			section.lock.unlock();
+			section.iterate();
+		});
+	}
+
+	/**
+	 * Wake the longest waiting coroutine, if any.
+	 */
+	public void signal() {
+		section.lock.lock();
+		final CriticalSection.Waiting waiting = waiters.poll();
+		if (waiting != null)
+			section.queue.add(waiting, 0);
+		section.lock.unlock();
+	}
+
+	/**
+	 * Wake all waiting coroutines.
+	 */
+	public void signalAll() {
+		section.lock.lock();
+		CriticalSection.Waiting waiting;
+		while ((waiting = waiters.poll()) != null)
+			section.queue.add(waiting, 0);
+		section.lock.unlock();
+	}
+}
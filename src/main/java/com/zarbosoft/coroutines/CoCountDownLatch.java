@@ -0,0 +1,65 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Like CountDownLatch, but await suspends the coroutine rather than blocking the thread.  When the count reaches zero
+ * all waiting coroutines are released together.
+ */
+public class CoCountDownLatch {
+	private final ReentrantLock lock = new ReentrantLock();
+	private WaiterBatch waiters = new WaiterBatch();
+	private long count;
+
+	public CoCountDownLatch(final long count) {
+		if (count < 0)
+			throw new IllegalArgumentException("count must not be negative");
+		this.count = count;
+	}
+
+	/**
+	 * Suspend until the count reaches zero.  Returns immediately if it's already zero.
+	 *
+	 * @param executor Coroutine is resumed in this executor.
+	 * @throws SuspendExecution
+	 */
+	public void await(final ExecutorService executor) throws SuspendExecution {
+		lock.lock();
+		if (count == 0) {
+			lock.unlock();
+			return;
+		}
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		Coroutine.yieldThen(() -> {
+			waiters.add(executor, coroutine);
+			lock.unlock();
+		});
+	}
+
+	/**
+	 * Decrement the count, releasing waiting coroutines if it reaches zero.  Does nothing if the count is already zero.
+	 */
+	public void countDown() {
+		lock.lock();
+		if (count == 0 || --count != 0) {
+			lock.unlock();
+			return;
+		}
+		final WaiterBatch release = waiters;
+		waiters = new WaiterBatch();
+		lock.unlock();
+		release.resume(null);
+	}
+
+	public long getCount() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
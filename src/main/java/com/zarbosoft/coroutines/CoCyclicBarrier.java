@@ -0,0 +1,79 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.coroutinescore.SuspendableRunnable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Like CyclicBarrier, but await suspends the coroutine rather than blocking the thread.  When the last party arrives
+ * the barrier action runs in its coroutine, then the other parties are released together and the barrier resets.
+ */
+public class CoCyclicBarrier {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final int parties;
+	private final SuspendableRunnable action;
+	private WaiterBatch waiters = new WaiterBatch();
+
+	public CoCyclicBarrier(final int parties) {
+		this(parties, null);
+	}
+
+	/**
+	 * @param parties Number of coroutines that must arrive to trip the barrier.
+	 * @param action  Run by the last coroutine to arrive, before the others are released.  May be null.
+	 */
+	public CoCyclicBarrier(final int parties, final SuspendableRunnable action) {
+		if (parties < 1)
+			throw new IllegalArgumentException("parties must be at least 1");
+		this.parties = parties;
+		this.action = action;
+	}
+
+	/**
+	 * Suspend until all parties have arrived.
+	 *
+	 * @param executor Coroutine is resumed in this executor.
+	 * @return The number of parties that arrived after this one; 0 for the last.
+	 * @throws SuspendExecution
+	 */
+	public int await(final ExecutorService executor) throws SuspendExecution {
+		lock.lock();
+		final int index = parties - 1 - waiters.size();
+		if (index > 0) {
+			final Coroutine coroutine = Coroutine.getActiveCoroutine();
+			Coroutine.yieldThen(() -> {
+				waiters.add(executor, coroutine);
+				lock.unlock();
+			});
+			return index;
+		}
+		final WaiterBatch release = waiters;
+		waiters = new WaiterBatch();
+		lock.unlock();
+		try {
+			if (action != null)
+				action.run();
+		} finally {
+			release.resume(null);
+		}
+		return 0;
+	}
+
+	public int getParties() {
+		return parties;
+	}
+
+	/**
+	 * @return Number of parties currently waiting.
+	 */
+	public int getNumberWaiting() {
+		lock.lock();
+		try {
+			return waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
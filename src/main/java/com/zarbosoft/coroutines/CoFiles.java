@@ -0,0 +1,98 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * Suspending wrappers for AsynchronousFileChannel.  The coroutine is resumed in the channel's completion thread pool
+ * (see AsynchronousFileChannel.open to choose the pool).
+ */
+public class CoFiles {
+	private final static CompletionHandler<Integer, Coroutine> resume = new CompletionHandler<Integer, Coroutine>() {
+		@Override
+		public void completed(final Integer result, final Coroutine coroutine) {
+			coroutine.process(result);
+		}
+
+		@Override
+		public void failed(final Throwable exc, final Coroutine coroutine) {
+			coroutine.processThrow(Cohelp.unwrap(exc));
+		}
+	};
+
+	/**
+	 * Read from the file without blocking a thread.
+	 *
+	 * @param channel
+	 * @param destination
+	 * @param position    File offset to start reading at.
+	 * @return Bytes read, or -1 if position is at or past the end of the file.
+	 * @throws SuspendExecution
+	 */
+	public static int read(
+			final AsynchronousFileChannel channel, final ByteBuffer destination, final long position
+	) throws SuspendExecution {
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			channel.read(destination, position, self, resume);
+		});
+	}
+
+	/**
+	 * Read until the destination is full or the file ends.
+	 *
+	 * @param channel
+	 * @param destination
+	 * @param position    File offset to start reading at.
+	 * @return Bytes read, or -1 if position is at or past the end of the file.
+	 * @throws SuspendExecution
+	 */
+	public static int readFully(
+			final AsynchronousFileChannel channel, final ByteBuffer destination, final long position
+	) throws SuspendExecution {
+		int total = 0;
+		while (destination.hasRemaining()) {
+			final int read = read(channel, destination, position + total);
+			if (read < 0)
+				return total == 0 ? -1 : total;
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Write to the file without blocking a thread.
+	 *
+	 * @param channel
+	 * @param source
+	 * @param position File offset to start writing at.
+	 * @return Bytes written.
+	 * @throws SuspendExecution
+	 */
+	public static int write(
+			final AsynchronousFileChannel channel, final ByteBuffer source, final long position
+	) throws SuspendExecution {
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			channel.write(source, position, self, resume);
+		});
+	}
+
+	/**
+	 * Write all of the source.
+	 *
+	 * @param channel
+	 * @param source
+	 * @param position File offset to start writing at.
+	 * @throws SuspendExecution
+	 */
+	public static void writeFully(
+			final AsynchronousFileChannel channel, final ByteBuffer source, long position
+	) throws SuspendExecution {
+		while (source.hasRemaining())
+			position += write(channel, source, position);
+	}
+}
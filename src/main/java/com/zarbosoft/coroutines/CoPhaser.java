@@ -0,0 +1,217 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Like Phaser (without tiering), but waiting suspends the coroutine rather than blocking the thread.  When the last
+ * registered party arrives the phase advances and all coroutines waiting on it are released together.
+ * <p>
+ * Phase numbers wrap to 0 after Integer.MAX_VALUE.  Once terminated, phase numbers are negative.
+ */
+public class CoPhaser {
+	private final ReentrantLock lock = new ReentrantLock();
+	private WaiterBatch waiters = new WaiterBatch();
+	private int phase = 0;
+	private int parties;
+	private int unarrived;
+
+	public CoPhaser() {
+		this(0);
+	}
+
+	/**
+	 * @param parties Number of parties initially registered.
+	 */
+	public CoPhaser(final int parties) {
+		if (parties < 0)
+			throw new IllegalArgumentException("parties must not be negative");
+		this.parties = parties;
+		this.unarrived = parties;
+	}
+
+	/**
+	 * Add a party.
+	 *
+	 * @return The current phase, negative if terminated.
+	 */
+	public int register() {
+		return bulkRegister(1);
+	}
+
+	/**
+	 * Add several parties.
+	 *
+	 * @param count
+	 * @return The current phase, negative if terminated.
+	 */
+	public int bulkRegister(final int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("count must not be negative");
+		lock.lock();
+		try {
+			if (phase >= 0) {
+				parties += count;
+				unarrived += count;
+			}
+			return phase;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Arrive without waiting.
+	 *
+	 * @return The phase arrived at, negative if terminated.
+	 */
+	public int arrive() {
+		return arrive(false);
+	}
+
+	/**
+	 * Arrive without waiting and remove a party.
+	 *
+	 * @return The phase arrived at, negative if terminated.
+	 */
+	public int arriveAndDeregister() {
+		return arrive(true);
+	}
+
+	private int arrive(final boolean deregister) {
+		lock.lock();
+		final int arrived = phase;
+		if (arrived < 0) {
+			lock.unlock();
+			return arrived;
+		}
+		if (unarrived == 0) {
+			lock.unlock();
+			throw new IllegalStateException("More arrivals than registered parties");
+		}
+		if (deregister)
+			parties -= 1;
+		if (--unarrived != 0) {
+			lock.unlock();
+			return arrived;
+		}
+		final WaiterBatch release = advance();
+		final int next = phase;
+		lock.unlock();
+		release.resume(next);
+		return arrived;
+	}
+
+	/**
+	 * Arrive and suspend until the phase advances.
+	 *
+	 * @param executor Coroutine is resumed in this executor.
+	 * @return The new phase, negative if terminated.
+	 * @throws SuspendExecution
+	 */
+	public int arriveAndAwaitAdvance(final ExecutorService executor) throws SuspendExecution {
+		final int arrived = arrive();
+		if (arrived < 0)
+			return arrived;
+		return awaitAdvance(executor, arrived);
+	}
+
+	/**
+	 * Suspend until the phase advances past phase.  Returns immediately if it already has.
+	 *
+	 * @param executor Coroutine is resumed in this executor.
+	 * @param phase    Phase to wait on, usually the result of an arrive.
+	 * @return The new phase, negative if terminated.
+	 * @throws SuspendExecution
+	 */
+	public int awaitAdvance(final ExecutorService executor, final int phase) throws SuspendExecution {
+		lock.lock();
+		if (phase < 0 || this.phase != phase) {
+			final int current = this.phase;
+			lock.unlock();
+			return current;
+		}
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			waiters.add(executor, coroutine);
+			lock.unlock();
+		});
+	}
+
+	/**
+	 * Must hold lock.
+	 *
+	 * @return The waiters to release once unlocked.
+	 */
+	private WaiterBatch advance() {
+		if (onAdvance(phase, parties))
+			phase |= Integer.MIN_VALUE;
+		else
+			phase = (phase + 1) & Integer.MAX_VALUE;
+		unarrived = parties;
+		final WaiterBatch release = waiters;
+		waiters = new WaiterBatch();
+		return release;
+	}
+
+	/**
+	 * Called with the phaser locked when a phase is about to advance.
+	 *
+	 * @param phase            Phase that's ending.
+	 * @param registeredParties
+	 * @return true to terminate the phaser.  By default, terminates when no parties are left.
+	 */
+	protected boolean onAdvance(final int phase, final int registeredParties) {
+		return registeredParties == 0;
+	}
+
+	/**
+	 * Terminate the phaser, releasing all waiting coroutines.
+	 */
+	public void forceTermination() {
+		lock.lock();
+		if (phase < 0) {
+			lock.unlock();
+			return;
+		}
+		phase |= Integer.MIN_VALUE;
+		final WaiterBatch release = waiters;
+		waiters = new WaiterBatch();
+		final int next = phase;
+		lock.unlock();
+		release.resume(next);
+	}
+
+	public int getPhase() {
+		lock.lock();
+		try {
+			return phase;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getRegisteredParties() {
+		lock.lock();
+		try {
+			return parties;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getUnarrivedParties() {
+		lock.lock();
+		try {
+			return unarrived;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isTerminated() {
+		return getPhase() < 0;
+	}
+}
@@ -0,0 +1,225 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter.  Tokens refill continuously at the configured rate up to the burst size, and acquire
+ * suspends the coroutine until enough are available.
+ * <p>
+ * Waiters are served strictly in order, and a single timer is scheduled at a time, for when the first waiter's tokens
+ * will be available; all waiters that can proceed then are resumed together.  Requests for more than the burst size
+ * wait for a full bucket then go into debt, delaying later requests.
+ * <p>
+ * With warm-up, after the bucket has been full and idle the refill rate drops to a third of the configured rate and
+ * ramps back up linearly over the warm-up period, and no burst is allowed.
+ */
+public class CoRateLimiter {
+	private final static double COLD_FACTOR = 1.0 / 3;
+
+	private final ScheduledExecutorService timer;
+	private final LongSupplier clock;
+	private final double perNano;
+	private final double capacity;
+	private final long warmupNanos;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+	private double tokens;
+	private long last;
+	private boolean cold;
+	private long warmStart;
+	private boolean scheduled = false;
+
+	/**
+	 * @param timer            Schedules the wake-ups of waiting coroutines.
+	 * @param permitsPerSecond
+	 */
+	public CoRateLimiter(final ScheduledExecutorService timer, final double permitsPerSecond) {
+		this(timer, permitsPerSecond, Math.max(1, permitsPerSecond), 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param timer            Schedules the wake-ups of waiting coroutines.
+	 * @param permitsPerSecond
+	 * @param maxBurst         Maximum tokens stored while idle.
+	 * @param warmup           Time to ramp up to full rate after being idle.  0 for no warm-up.
+	 * @param unit
+	 */
+	public CoRateLimiter(
+			final ScheduledExecutorService timer,
+			final double permitsPerSecond,
+			final double maxBurst,
+			final long warmup,
+			final TimeUnit unit
+	) {
+		this(timer, permitsPerSecond, maxBurst, unit.toNanos(warmup), System::nanoTime);
+	}
+
+	CoRateLimiter(
+			final ScheduledExecutorService timer,
+			final double permitsPerSecond,
+			final double maxBurst,
+			final long warmupNanos,
+			final LongSupplier clock
+	) {
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond must be positive");
+		if (!(maxBurst >= 1))
+			throw new IllegalArgumentException("maxBurst must be at least 1");
+		if (warmupNanos < 0)
+			throw new IllegalArgumentException("warmup must not be negative");
+		this.timer = timer;
+		this.clock = clock;
+		this.perNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.capacity = maxBurst;
+		this.warmupNanos = warmupNanos;
+		this.last = clock.getAsLong();
+		this.tokens = capacity;
+		this.cold = warmupNanos > 0;
+	}
+
+	public void acquire(final ExecutorService executor) throws SuspendExecution {
+		acquire(executor, 1);
+	}
+
+	/**
+	 * Take permits, suspending until they're available and all earlier waiters have been served.
+	 *
+	 * @param executor Coroutine is resumed in this executor if it has to wait.
+	 * @param permits
+	 * @throws SuspendExecution
+	 */
+	public void acquire(final ExecutorService executor, final int permits) throws SuspendExecution {
+		if (permits < 1)
+			throw new IllegalArgumentException("permits must be at least 1");
+		lock.lock();
+		if (take(permits)) {
+			lock.unlock();
+			return;
+		}
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		Coroutine.yieldThen(() -> {
+			waiters.add(new Waiter(executor, coroutine, permits));
+			if (!scheduled)
+				schedule();
+			lock.unlock();
+		});
+	}
+
+	public boolean tryAcquire() {
+		return tryAcquire(1);
+	}
+
+	/**
+	 * Take permits if they're available now and nobody is waiting.
+	 *
+	 * @param permits
+	 * @return true if the permits were taken.
+	 */
+	public boolean tryAcquire(final int permits) {
+		if (permits < 1)
+			throw new IllegalArgumentException("permits must be at least 1");
+		lock.lock();
+		try {
+			return take(permits);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private boolean take(final int permits) {
+		final long now = clock.getAsLong();
+		refill(now);
+		if (cold) {
+			cold = false;
+			warmStart = now;
+			tokens = Math.min(tokens, 1);
+		}
+		if (!waiters.isEmpty() || tokens < Math.min(permits, capacity))
+			return false;
+		tokens -= permits;
+		return true;
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private void refill(final long now) {
+		if (now <= last)
+			return;
+		tokens = Math.min(capacity, tokens + perNano * warmedNanos(last - warmStart, now - warmStart));
+		last = now;
+		if (warmupNanos > 0 && tokens >= capacity && waiters.isEmpty())
+			cold = true;
+	}
+
+	/**
+	 * Integral of the warm-up factor over an interval.
+	 *
+	 * @param from Nanoseconds since the warm-up started.
+	 * @param to
+	 * @return Nanoseconds at full rate equivalent to the interval.
+	 */
+	private double warmedNanos(final long from, final long to) {
+		if (warmupNanos == 0 || from >= warmupNanos)
+			return to - from;
+		final double rampEnd = Math.min(to, warmupNanos);
+		final double ramp = COLD_FACTOR * (rampEnd - from) +
+				(1 - COLD_FACTOR) / (2.0 * warmupNanos) * (rampEnd * rampEnd - (double) from * from);
+		return ramp + Math.max(0, to - warmupNanos);
+	}
+
+	/**
+	 * Must hold lock.  Schedule a wake-up for when the first waiter can proceed.
+	 */
+	private void schedule() {
+		final Waiter first = waiters.peek();
+		final double needed = Math.min(first.permits, capacity) - tokens;
+		final long elapsed = last - warmStart;
+		final double factor = warmupNanos == 0 || elapsed >= warmupNanos ?
+				1 :
+				COLD_FACTOR + (1 - COLD_FACTOR) * elapsed / warmupNanos;
+		final long delay = Math.max(1, (long) Math.ceil(needed / (perNano * factor)));
+		scheduled = true;
+		timer.schedule(this::wake, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private void wake() {
+		final WaiterBatch release = new WaiterBatch();
+		lock.lock();
+		refill(clock.getAsLong());
+		Waiter first;
+		while ((first = waiters.peek()) != null && tokens >= Math.min(first.permits, capacity)) {
+			waiters.poll();
+			tokens -= first.permits;
+			release.add(first.executor, first.coroutine);
+		}
+		if (waiters.isEmpty())
+			scheduled = false;
+		else
+			schedule();
+		lock.unlock();
+		release.resume(null);
+	}
+
+	private static class Waiter {
+		final ExecutorService executor;
+		final Coroutine coroutine;
+		final int permits;
+
+		Waiter(final ExecutorService executor, final Coroutine coroutine, final int permits) {
+			this.executor = executor;
+			this.coroutine = coroutine;
+			this.permits = permits;
+		}
+	}
+}
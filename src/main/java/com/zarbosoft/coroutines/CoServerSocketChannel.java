@@ -0,0 +1,69 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A server socket whose accept suspends the coroutine rather than blocking the thread.
+ */
+public class CoServerSocketChannel implements Closeable {
+	private final SelectorLoop loop;
+	private final ExecutorService executor;
+	public final ServerSocketChannel channel;
+
+	/**
+	 * @param loop     Waits for connections in this loop.  Accepted sockets use the same loop.
+	 * @param executor Coroutines are resumed in this executor after waiting.  Accepted sockets use the same executor.
+	 * @param channel  Wrapped channel; will be made non-blocking.
+	 * @throws IOException
+	 */
+	public CoServerSocketChannel(
+			final SelectorLoop loop, final ExecutorService executor, final ServerSocketChannel channel
+	) throws IOException {
+		this.loop = loop;
+		this.executor = executor;
+		this.channel = channel;
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * Open a server socket bound to the address.
+	 *
+	 * @param loop
+	 * @param executor
+	 * @param address
+	 * @return
+	 * @throws IOException
+	 */
+	public static CoServerSocketChannel open(
+			final SelectorLoop loop, final ExecutorService executor, final SocketAddress address
+	) throws IOException {
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(address);
+		return new CoServerSocketChannel(loop, executor, channel);
+	}
+
+	public CoSocketChannel accept() throws IOException, SuspendExecution {
+		while (true) {
+			final SocketChannel accepted = channel.accept();
+			if (accepted != null)
+				return new CoSocketChannel(loop, executor, accepted);
+			loop.await(channel, SelectionKey.OP_ACCEPT, executor);
+		}
+	}
+
+	/**
+	 * Close the socket.  Coroutines waiting on it are resumed and raise ClosedChannelException.
+	 */
+	@Override
+	public void close() {
+		loop.close(channel);
+	}
+}
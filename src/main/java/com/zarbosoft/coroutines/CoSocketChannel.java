@@ -0,0 +1,162 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A socket whose operations suspend the coroutine rather than blocking the thread.  Operations are attempted
+ * immediately and only suspend (waiting on the SelectorLoop) if the socket isn't ready.
+ * <p>
+ * At most one coroutine may read and one coroutine may write at a time.
+ */
+public class CoSocketChannel implements Closeable {
+	private final SelectorLoop loop;
+	private final ExecutorService executor;
+	public final SocketChannel channel;
+
+	/**
+	 * @param loop     Waits for readiness in this loop.
+	 * @param executor Coroutines are resumed in this executor after waiting.
+	 * @param channel  Wrapped channel; will be made non-blocking.
+	 * @throws IOException
+	 */
+	public CoSocketChannel(
+			final SelectorLoop loop, final ExecutorService executor, final SocketChannel channel
+	) throws IOException {
+		this.loop = loop;
+		this.executor = executor;
+		this.channel = channel;
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * Open an unconnected socket.
+	 *
+	 * @param loop
+	 * @param executor
+	 * @return
+	 * @throws IOException
+	 */
+	public static CoSocketChannel open(final SelectorLoop loop, final ExecutorService executor) throws IOException {
+		return new CoSocketChannel(loop, executor, SocketChannel.open());
+	}
+
+	public void connect(final SocketAddress address) throws IOException, SuspendExecution {
+		if (channel.connect(address))
+			return;
+		do {
+			loop.await(channel, SelectionKey.OP_CONNECT, executor);
+		} while (!channel.finishConnect());
+	}
+
+	/**
+	 * Read at least one byte unless the destination is full or the stream ended.
+	 *
+	 * @param destination
+	 * @return Bytes read, or -1 at end of stream.
+	 * @throws IOException
+	 * @throws SuspendExecution
+	 */
+	public int read(final ByteBuffer destination) throws IOException, SuspendExecution {
+		while (true) {
+			final int read = channel.read(destination);
+			if (read != 0 || !destination.hasRemaining())
+				return read;
+			loop.await(channel, SelectionKey.OP_READ, executor);
+		}
+	}
+
+	/**
+	 * Scattering read; reads at least one byte unless the destinations are full or the stream ended.
+	 *
+	 * @param destinations
+	 * @return Bytes read, or -1 at end of stream.
+	 * @throws IOException
+	 * @throws SuspendExecution
+	 */
+	public long read(final ByteBuffer[] destinations) throws IOException, SuspendExecution {
+		while (true) {
+			final long read = channel.read(destinations);
+			if (read != 0 || remaining(destinations) == 0)
+				return read;
+			loop.await(channel, SelectionKey.OP_READ, executor);
+		}
+	}
+
+	/**
+	 * Read into a buffer from the pool.
+	 *
+	 * @param pool
+	 * @return A flipped buffer containing at least one byte, or null at end of stream.  Release the buffer to the
+	 * pool when done.
+	 * @throws IOException
+	 * @throws SuspendExecution
+	 */
+	public ByteBuffer read(final BufferPool pool) throws IOException, SuspendExecution {
+		final ByteBuffer buffer = pool.acquire();
+		boolean ok = false;
+		try {
+			if (read(buffer) < 0)
+				return null;
+			buffer.flip();
+			ok = true;
+			return buffer;
+		} finally {
+			if (!ok)
+				pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Write all of the source.
+	 *
+	 * @param source
+	 * @throws IOException
+	 * @throws SuspendExecution
+	 */
+	public void write(final ByteBuffer source) throws IOException, SuspendExecution {
+		while (source.hasRemaining()) {
+			if (channel.write(source) == 0)
+				loop.await(channel, SelectionKey.OP_WRITE, executor);
+		}
+	}
+
+	/**
+	 * Gathering write; write all of the sources in order with as few system calls as possible.
+	 *
+	 * @param sources
+	 * @throws IOException
+	 * @throws SuspendExecution
+	 */
+	public void write(final ByteBuffer... sources) throws IOException, SuspendExecution {
+		long remaining = remaining(sources);
+		while (remaining > 0) {
+			final long written = channel.write(sources);
+			if (written == 0)
+				loop.await(channel, SelectionKey.OP_WRITE, executor);
+			remaining -= written;
+		}
+	}
+
+	private static long remaining(final ByteBuffer[] buffers) {
+		long out = 0;
+		for (final ByteBuffer buffer : buffers)
+			out += buffer.remaining();
+		return out;
+	}
+
+	/**
+	 * Close the socket.  Coroutines waiting on it are resumed and raise ClosedChannelException.
+	 */
+	@Override
+	public void close() {
+		loop.close(channel);
+	}
+}
@@ -0,0 +1,257 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pull-based stream whose stages can suspend.  Elements can't be null.
+ * <p>
+ * Stages like map, filter and window(count) are fused: they're evaluated in the consuming coroutine when it calls next,
+ * with no coroutine or hand-off per stage, and consecutive maps are composed into a single stage.  Only buffer, merge
+ * and window(time) introduce new coroutines, connected to the consumer by a CoChannel.
+ *
+ * @param <T>
+ */
+public abstract class CoStream<T> {
+	/**
+	 * @return The next element, or null if the stream has ended.
+	 * @throws SuspendExecution
+	 */
+	public abstract T next() throws SuspendExecution;
+
+	public static <T> CoStream<T> of(final Iterable<T> source) {
+		final Iterator<T> iterator = source.iterator();
+		return new CoStream<T>() {
+			@Override
+			public T next() {
+				if (!iterator.hasNext())
+					return null;
+				return iterator.next();
+			}
+		};
+	}
+
+	public static <T> CoStream<T> of(final CoChannel<T> channel) {
+		return new CoStream<T>() {
+			@Override
+			public T next() throws SuspendExecution {
+				return channel.receive();
+			}
+		};
+	}
+
+	public static <T> CoStream<T> of(final CoSubscriber<T> subscriber) {
+		return new CoStream<T>() {
+			@Override
+			public T next() throws SuspendExecution {
+				return subscriber.next();
+			}
+		};
+	}
+
+	public <R> CoStream<R> map(final SuspendableFunction<T, R> function) {
+		return new MapStream<>(this, function);
+	}
+
+	private static class MapStream<T, R> extends CoStream<R> {
+		private final CoStream<T> upstream;
+		private final SuspendableFunction<T, R> function;
+
+		MapStream(final CoStream<T> upstream, final SuspendableFunction<T, R> function) {
+			this.upstream = upstream;
+			this.function = function;
+		}
+
+		@Override
+		public R next() throws SuspendExecution {
+			final T value = upstream.next();
+			if (value == null)
+				return null;
+			return function.apply(value);
+		}
+
+		@Override
+		public <R2> CoStream<R2> map(final SuspendableFunction<R, R2> next) {
+			return new MapStream<T, R2>(upstream, value -> {
+				final R mapped = function.apply(value);
+				// Null ends the stream, same as unfused
+				if (mapped == null)
+					return null;
+				return next.apply(mapped);
+			});
+		}
+	}
+
+	/**
+	 * @param predicate Elements are kept if this returns true.
+	 * @return
+	 */
+	public CoStream<T> filter(final SuspendableFunction<T, Boolean> predicate) {
+		final CoStream<T> upstream = this;
+		return new CoStream<T>() {
+			@Override
+			public T next() throws SuspendExecution {
+				while (true) {
+					final T value = upstream.next();
+					if (value == null || predicate.apply(value))
+						return value;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Group elements into lists.
+	 *
+	 * @param count Elements per list; the last list may be shorter.
+	 * @return
+	 */
+	public CoStream<List<T>> window(final int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("count must be at least 1");
+		final CoStream<T> upstream = this;
+		return new CoStream<List<T>>() {
+			@Override
+			public List<T> next() throws SuspendExecution {
+				final List<T> out = new ArrayList<>(count);
+				while (out.size() < count) {
+					final T value = upstream.next();
+					if (value == null)
+						break;
+					out.add(value);
+				}
+				return out.isEmpty() ? null : out;
+			}
+		};
+	}
+
+	/**
+	 * Group elements into lists by time.  A list is emitted when it reaches maxCount elements or when time has passed
+	 * since its first element arrived, whichever comes first.  The upstream is read in its own coroutine, starting
+	 * immediately.
+	 *
+	 * @param executor Upstream is read in this executor and timeouts are scheduled in it.
+	 * @param maxCount Maximum elements per list.
+	 * @param time     Maximum time to wait after the first element of a list.
+	 * @param unit
+	 * @return
+	 */
+	public CoStream<List<T>> window(
+			final ScheduledExecutorService executor, final int maxCount, final long time, final TimeUnit unit
+	) {
+		if (maxCount < 1)
+			throw new IllegalArgumentException("maxCount must be at least 1");
+		final CoChannel<T> channel = pump(executor, maxCount);
+		return new CoStream<List<T>>() {
+			@Override
+			public List<T> next() throws SuspendExecution {
+				final T first = channel.receive();
+				if (first == null)
+					return null;
+				final List<T> out = new ArrayList<>(maxCount);
+				out.add(first);
+				final long deadline = System.nanoTime() + unit.toNanos(time);
+				while (out.size() < maxCount) {
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					final Object value = channel.receive(executor, remaining, TimeUnit.NANOSECONDS);
+					if (value == null || value == CoChannel.TIMEOUT)
+						break;
+					out.add((T) value);
+				}
+				return out;
+			}
+		};
+	}
+
+	/**
+	 * Read the upstream in its own coroutine, up to size elements ahead of the consumer.  Reading starts immediately.
+	 *
+	 * @param executor Upstream is read in this executor.
+	 * @param size     Maximum elements read ahead.
+	 * @return
+	 */
+	public CoStream<T> buffer(final ExecutorService executor, final int size) {
+		return of(pump(executor, size));
+	}
+
+	private CoChannel<T> pump(final ExecutorService executor, final int size) {
+		final CoChannel<T> channel = new CoChannel<>(executor, size);
+		final CoStream<T> upstream = this;
+		Cohelp.submit(executor, () -> {
+			try {
+				T value;
+				while ((value = upstream.next()) != null)
+					channel.send(value);
+				channel.close();
+			} catch (final RuntimeException e) {
+				channel.close(e);
+			}
+		});
+		return channel;
+	}
+
+	/**
+	 * Interleave the elements of several streams in the order they become available.  Each stream is read in its own
+	 * coroutine.  The merged stream ends when all the streams end, or fails when any fails.
+	 *
+	 * @param executor Streams are read in this executor.
+	 * @param size     Maximum elements read ahead across all streams.
+	 * @param streams
+	 * @param <T>
+	 * @return
+	 */
+	@SafeVarargs
+	public static <T> CoStream<T> merge(final ExecutorService executor, final int size, final CoStream<T>... streams) {
+		final CoChannel<T> channel = new CoChannel<>(executor, size);
+		final AtomicInteger remaining = new AtomicInteger(streams.length);
+		if (streams.length == 0)
+			channel.close();
+		for (final CoStream<T> stream : streams) {
+			Cohelp.submit(executor, () -> {
+				try {
+					T value;
+					while ((value = stream.next()) != null)
+						channel.send(value);
+					if (remaining.decrementAndGet() == 0)
+						channel.close();
+				} catch (final RuntimeException e) {
+					channel.close(e);
+				}
+			});
+		}
+		return of(channel);
+	}
+
+	/**
+	 * Consume the stream.
+	 *
+	 * @param consumer Called with each element.
+	 * @throws SuspendExecution
+	 */
+	public void forEach(final SuspendableConsumer<T> consumer) throws SuspendExecution {
+		T value;
+		while ((value = next()) != null)
+			consumer.apply(value);
+	}
+
+	/**
+	 * @return All remaining elements.
+	 * @throws SuspendExecution
+	 */
+	public List<T> toList() throws SuspendExecution {
+		final List<T> out = new ArrayList<>();
+		T value;
+		while ((value = next()) != null)
+			out.add(value);
+		return out;
+	}
+}
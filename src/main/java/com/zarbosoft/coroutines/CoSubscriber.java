@@ -0,0 +1,168 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A Flow subscriber that a coroutine can read from.  next suspends until an item arrives.
+ * <p>
+ * Items are requested in batches: prefetch items are requested up front, and once three quarters of those have been
+ * consumed the same number is requested again, so the publisher is rarely idle and the coroutine rarely suspends.
+ *
+ * @param <T>
+ */
+public class CoSubscriber<T> implements Flow.Subscriber<T> {
+	private final ExecutorService executor;
+	private final int prefetch;
+	private final int replenish;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<T> buffer;
+	private Flow.Subscription subscription = null;
+	private int consumed = 0;
+	private boolean done = false;
+	private Throwable error = null;
+	private Coroutine waiter = null;
+
+	/**
+	 * @param executor Coroutine is resumed in this executor if it had to wait for an item.
+	 * @param prefetch Maximum number of items buffered.
+	 */
+	public CoSubscriber(final ExecutorService executor, final int prefetch) {
+		if (prefetch < 1)
+			throw new IllegalArgumentException("prefetch must be at least 1");
+		this.executor = executor;
+		this.prefetch = prefetch;
+		this.replenish = Math.max(1, prefetch - prefetch / 4);
+		this.buffer = new ArrayDeque<>(prefetch);
+	}
+
+	/**
+	 * Get the next item, suspending if none is available.
+	 *
+	 * @return The next item, or null if the publisher completed.
+	 * @throws SuspendExecution
+	 */
+	public T next() throws SuspendExecution {
+		lock.lock();
+		final T item = buffer.poll();
+		if (item != null) {
+			final boolean request = consume();
+			lock.unlock();
+			if (request)
+				subscription.request(replenish);
+			return item;
+		}
+		if (done) {
+			final Throwable error = this.error;
+			lock.unlock();
+			if (error != null)
+				throw Cohelp.unwrap(error);
+			return null;
+		}
+		if (waiter != null) {
+			lock.unlock();
+			throw new IllegalStateException("Another coroutine is already waiting");
+		}
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			waiter = self;
+			lock.unlock();
+		});
+	}
+
+	/**
+	 * Stop receiving items.  Buffered items can still be read.
+	 */
+	public void cancel() {
+		lock.lock();
+		final Flow.Subscription subscription = this.subscription;
+		done = true;
+		final Coroutine waiter = this.waiter;
+		this.waiter = null;
+		lock.unlock();
+		if (subscription != null)
+			subscription.cancel();
+		if (waiter != null)
+			resume(waiter, null, null);
+	}
+
+	/**
+	 * Must hold lock.
+	 *
+	 * @return true if more items should be requested.
+	 */
+	private boolean consume() {
+		consumed += 1;
+		if (consumed < replenish || done)
+			return false;
+		consumed = 0;
+		return true;
+	}
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription) {
+		lock.lock();
+		if (this.subscription != null || done) {
+			lock.unlock();
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		lock.unlock();
+		subscription.request(prefetch);
+	}
+
+	@Override
+	public void onNext(final T item) {
+		lock.lock();
+		if (done) {
+			lock.unlock();
+			return;
+		}
+		final Coroutine waiter = this.waiter;
+		if (waiter == null) {
+			buffer.add(item);
+			lock.unlock();
+			return;
+		}
+		this.waiter = null;
+		final boolean request = consume();
+		lock.unlock();
+		if (request)
+			subscription.request(replenish);
+		resume(waiter, item, null);
+	}
+
+	@Override
+	public void onError(final Throwable throwable) {
+		finish(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		finish(null);
+	}
+
+	private void finish(final Throwable error) {
+		lock.lock();
+		if (done) {
+			lock.unlock();
+			return;
+		}
+		done = true;
+		this.error = error;
+		final Coroutine waiter = this.waiter;
+		this.waiter = null;
+		lock.unlock();
+		if (waiter != null)
+			resume(waiter, null, error);
+	}
+
+	private void resume(final Coroutine coroutine, final T item, final Throwable error) {
+		Cohelp.resume(executor, coroutine, item, error);
+	}
+}
@@ -8,9 +8,13 @@ import org.slf4j.Logger;
 import java.time.*;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.Temporal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import static com.zarbosoft.rendaw.common.Common.uncheck;
 import static java.time.temporal.ChronoUnit.DAYS;
@@ -105,7 +109,99 @@ public class Cohelp {
 	}
 
 	/**
-	 * Asynchronously wait for a future to complete.
+	 * Run synchronous work in one executor and resume the coroutine in another, for example to keep blocking work off a
+	 * CoroutineEventLoop while still resuming on it.
+	 *
+	 * @param blockingExecutor Work is run in this executor.
+	 * @param resumeExecutor   Coroutine is resumed in this executor after the work is complete.
+	 * @param runnable         Work to offload.
+	 * @param <T>              Work return value.
+	 * @return Return value from work.
+	 * @throws SuspendExecution
+	 */
+	public static <T> T unblock(
+			final ExecutorService blockingExecutor, final ExecutorService resumeExecutor, final Blocking<T> runnable
+	) throws SuspendExecution {
+		return unblockOn(blockingExecutor, resumeExecutor, runnable);
+	}
+
+	/**
+	 * Run synchronous work in one executor and resume the coroutine in another, for example to keep blocking work off a
+	 * CoroutineEventLoop while still resuming on it.
+	 *
+	 * @param blockingExecutor Work is run in this executor.
+	 * @param resumeExecutor   Coroutine is resumed in this executor after the work is complete.
+	 * @param runnable         Work to offload.
+	 * @throws SuspendExecution
+	 */
+	public static void unblock(
+			final ExecutorService blockingExecutor, final ExecutorService resumeExecutor, final NullaryBlocking runnable
+	) throws SuspendExecution {
+		unblockOn(blockingExecutor, resumeExecutor, () -> {
+			runnable.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Shared by the two executor unblocks and BlockingPool.  Anything raised by the work, or a rejection from
+	 * blockingExecutor, is raised from the suspension point; Errors are fatal to resumeExecutor (see resume).
+	 *
+	 * @param blockingExecutor Work is run in this executor.
+	 * @param resumeExecutor   Coroutine is resumed in this executor after the work is complete.
+	 * @param runnable         Work to offload.
+	 * @param <T>              Work return value.
+	 * @return Return value from work.
+	 * @throws SuspendExecution
+	 */
+	static <T> T unblockOn(
+			final Executor blockingExecutor, final ExecutorService resumeExecutor, final Blocking<T> runnable
+	) throws SuspendExecution {
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			try {
+				blockingExecutor.execute(() -> {
+					T out = null;
+					Throwable error = null;
+					try {
+						out = runnable.run();
+					} catch (final Throwable e) {
+						error = e;
+					}
+					resume(resumeExecutor, self, out, error);
+				});
+			} catch (final RejectedExecutionException e) {
+				resume(resumeExecutor, self, null, e);
+			}
+		});
+	}
+
+	/**
+	 * Resume a suspended coroutine in the executor, shutting the executor down if an error escapes the coroutine.
+	 *
+	 * @param executor
+	 * @param coroutine
+	 * @param value     Returned from the suspending call, if error is null.
+	 * @param error     Raised from the suspending call (see unwrap), or null.
+	 */
+	static void resume(
+			final ExecutorService executor, final Coroutine coroutine, final Object value, final Throwable error
+	) {
+		executor.execute(() -> {
+			try {
+				if (error == null)
+					coroutine.process(value);
+				else
+					coroutine.processThrow(unwrap(error));
+			} catch (final Throwable e) {
+				fatal(executor, e);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronously wait for a future to complete.  If the future is already complete the result is returned
+	 * without suspending.  Otherwise the coroutine is resumed in the thread that completes the future.
 	 *
 	 * @param future
 	 * @param <T>
@@ -113,15 +209,173 @@ public class Cohelp {
 	 * @throws SuspendExecution
 	 */
 	public static <T> T unblock(final CompletableFuture<T> future) throws SuspendExecution {
+		return unblock((CompletionStage<T>) future);
+	}
+
+	/**
+	 * Asynchronously wait for a stage to complete.  If the stage is a CompletableFuture and already complete the
+	 * result is returned without suspending.  Otherwise the coroutine is resumed in the thread that completes the
+	 * stage.
+	 *
+	 * @param stage
+	 * @param <T>
+	 * @return Result of stage.
+	 * @throws SuspendExecution
+	 */
+	public static <T> T unblock(final CompletionStage<T> stage) throws SuspendExecution {
+		if (stage instanceof CompletableFuture && ((CompletableFuture<T>) stage).isDone())
+			return result((CompletableFuture<T>) stage);
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			stage.whenComplete(new Resume(self));
+		});
+	}
+
+	/**
+	 * Asynchronously wait for a stage to complete.  If the stage is a CompletableFuture and already complete the
+	 * result is returned without suspending.
+	 *
+	 * @param executor Coroutine is resumed in this executor after the stage completes, rather than in the thread that
+	 *                 completed it.
+	 * @param stage
+	 * @param <T>
+	 * @return Result of stage.
+	 * @throws SuspendExecution
+	 */
+	public static <T> T unblock(
+			final ExecutorService executor, final CompletionStage<T> stage
+	) throws SuspendExecution {
+		if (stage instanceof CompletableFuture && ((CompletableFuture<T>) stage).isDone())
+			return result((CompletableFuture<T>) stage);
 		final Coroutine self = Coroutine.getActiveCoroutine();
 		return Coroutine.yieldThen(() -> {
-			future.thenAccept(v -> {
-				self.process(v);
-			}).exceptionally(e -> {
-				self.processThrow(uncheck((Exception) e));
+			stage.whenCompleteAsync(new Resume(self), executor);
+		});
+	}
+
+	private static class Resume implements BiConsumer<Object, Throwable> {
+		private final Coroutine coroutine;
+
+		private Resume(final Coroutine coroutine) {
+			this.coroutine = coroutine;
+		}
+
+		@Override
+		public void accept(final Object value, final Throwable error) {
+			if (error != null)
+				coroutine.processThrow(unwrap(error));
+			else
+				coroutine.process(value);
+		}
+	}
+
+	private static <T> T result(final CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (final CompletionException | CancellationException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Asynchronously wait for all futures to complete.  The coroutine suspends at most once, regardless of the number
+	 * of futures, and not at all if every future is already complete.  If any future has already failed its failure is
+	 * raised without suspending, and if one fails later the coroutine is resumed immediately with that failure.
+	 *
+	 * @param futures
+	 * @param <T>
+	 * @return Results of futures, in the same order.
+	 * @throws SuspendExecution
+	 */
+	public static <T> List<T> awaitAll(final List<? extends CompletableFuture<? extends T>> futures) throws SuspendExecution {
+		final List<CompletableFuture<? extends T>> incomplete = new ArrayList<>();
+		for (final CompletableFuture<? extends T> future : futures) {
+			if (!future.isDone())
+				incomplete.add(future);
+			else if (future.isCompletedExceptionally())
+				result(future); // Raises the failure
+		}
+		if (!incomplete.isEmpty()) {
+			final Coroutine self = Coroutine.getActiveCoroutine();
+			Coroutine.yieldThen(() -> {
+				final AwaitAll callback = new AwaitAll(self, incomplete.size());
+				for (final CompletableFuture<? extends T> future : incomplete)
+					future.whenComplete(callback);
+			});
+		}
+		final List<T> out = new ArrayList<>(futures.size());
+		for (final CompletableFuture<? extends T> future : futures)
+			out.add(result(future));
+		return out;
+	}
+
+	private static class AwaitAll implements BiConsumer<Object, Throwable> {
+		private final Coroutine coroutine;
+		private final AtomicInteger remaining;
+
+		private AwaitAll(final Coroutine coroutine, final int count) {
+			this.coroutine = coroutine;
+			this.remaining = new AtomicInteger(count);
+		}
+
+		@Override
+		public void accept(final Object value, final Throwable error) {
+			if (error != null) {
+				if (remaining.getAndSet(-1) > 0)
+					coroutine.processThrow(unwrap(error));
+			} else if (remaining.decrementAndGet() == 0)
+				coroutine.process(null);
+		}
+	}
+
+	/**
+	 * Apply an asynchronous function to every element of a collection with at most parallelism applications running at
+	 * once.  Only parallelism coroutines are created; each takes the next unprocessed element when it finishes one.
+	 * The calling coroutine suspends once until all elements are processed.  If an application fails the remaining
+	 * work is cancelled and the failure is raised.
+	 *
+	 * @param executor    Work is run in this executor, and the calling coroutine is resumed in it.
+	 * @param source      Elements to process.
+	 * @param parallelism Maximum concurrent applications.
+	 * @param function    Work to apply to each element.
+	 * @param <T>
+	 * @param <R>
+	 * @return Results in the same order as the elements of source.
+	 * @throws SuspendExecution
+	 */
+	public static <T, R> List<R> mapConcurrent(
+			final ExecutorService executor,
+			final Collection<T> source,
+			final int parallelism,
+			final SuspendableFunction<T, R> function
+	) throws SuspendExecution {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		final Object[] inputs = source.toArray();
+		final Object[] results = new Object[inputs.length];
+		final AtomicInteger next = new AtomicInteger(0);
+		final CoroutineScope scope = new CoroutineScope(executor);
+		for (int i = 0; i < Math.min(parallelism, inputs.length); ++i) {
+			scope.fork(() -> {
+				while (true) {
+					final int index = next.getAndIncrement();
+					if (index >= inputs.length || scope.isCancelled())
+						break;
+					results[index] = function.apply((T) inputs[index]);
+				}
 				return null;
 			});
-		});
+		}
+		scope.join();
+		return (List<R>) Arrays.asList(results);
+	}
+
+	static RuntimeException unwrap(Throwable e) {
+		if ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null)
+			e = e.getCause();
+		if (e instanceof Error)
+			throw (Error) e;
+		return uncheck((Exception) e);
 	}
 
 	/**
@@ -183,6 +437,142 @@ public class Cohelp {
 		}
 	}
 
+	/**
+	 * Run asynchronous work synchronously, resuming the coroutine on the calling thread.  The work is given an executor
+	 * to pass to suspending calls; whenever the coroutine is resumed through it, the resumption is queued and run here
+	 * rather than handed to another thread.  Resumptions through other executors happen as usual.
+	 * <p>
+	 * In a ForkJoinPool worker, waiting goes through ForkJoinPool.managedBlock so the pool can compensate.  If the
+	 * thread is interrupted while waiting, the interrupt flag is restored before returning.  Tasks sent to the executor
+	 * after the work finishes run immediately in the sending thread.
+	 *
+	 * @param runnable Asynchronous work, given the local executor.
+	 * @param <T>
+	 * @return Return value of asynchronous work
+	 */
+	public static <T> T blockCallerRuns(final SuspendableFunction<ExecutorService, T> runnable) {
+		final LocalLoop loop = new LocalLoop();
+		final Object[] result = new Object[1];
+		final Throwable[] error = new Throwable[1];
+		new Coroutine(new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution {
+				try {
+					result[0] = runnable.apply(loop);
+				} catch (final Throwable e) {
+					error[0] = e;
+				}
+				loop.finish();
+			}
+		}).process(null);
+		loop.run();
+		if (error[0] != null)
+			throw unwrap(error[0]);
+		return (T) result[0];
+	}
+
+	/**
+	 * An executor whose tasks are run by the thread in run.
+	 */
+	private static class LocalLoop extends AbstractExecutorService implements ForkJoinPool.ManagedBlocker {
+		private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+		private volatile boolean done = false;
+		private boolean exited = false;
+		private Runnable next = null;
+		private boolean interrupted = false;
+
+		/**
+		 * Stop looping once queued tasks are run.  Called from whichever thread finishes the work.
+		 */
+		void finish() {
+			done = true;
+			queue.add(() -> {
+			});
+		}
+
+		void run() {
+			final boolean managed = Thread.currentThread() instanceof ForkJoinWorkerThread;
+			while (true) {
+				if (done) {
+					synchronized (this) {
+						if (next == null && queue.isEmpty()) {
+							exited = true;
+							break;
+						}
+					}
+				}
+				if (managed) {
+					try {
+						ForkJoinPool.managedBlock(this);
+					} catch (final InterruptedException e) {
+						interrupted = true;
+						continue;
+					}
+				} else
+					block();
+				final Runnable task = next;
+				next = null;
+				task.run();
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		@Override
+		public boolean block() {
+			while (next == null) {
+				try {
+					next = queue.take();
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			if (next == null)
+				next = queue.poll();
+			return next != null;
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			synchronized (this) {
+				if (!exited) {
+					queue.add(command);
+					return;
+				}
+			}
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return new ArrayList<>();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+			return false;
+		}
+	}
+
 	private static TimeUnit timeUnit(final ChronoUnit unit) {
 		switch (unit) {
 			case NANOS:
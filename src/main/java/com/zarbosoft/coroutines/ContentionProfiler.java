@@ -0,0 +1,166 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.coroutinescore.SuspendableRunnable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Samples critical section entries and attributes their wait time (queued before the method starts) and hold time (the
+ * method running) to the caller's stack.  Attach to any number of sections with setProfiler, then call report.
+ * <p>
+ * Only sampled entries pay for capturing the stack.  Unsampled entries cost a random number.
+ */
+public class ContentionProfiler {
+	private final static Set<String> INTERNAL = new HashSet<>(Arrays.asList(
+			ContentionProfiler.class.getName(),
+			CriticalSection.class.getName(),
+			RWCriticalSection.class.getName(),
+			WRCriticalSection.class.getName(),
+			PhaseFairCriticalSection.class.getName()
+	));
+
+	private final int sampleEvery;
+	private final int depth;
+	private final ConcurrentHashMap<String, Site> sites = new ConcurrentHashMap<>();
+
+	/**
+	 * Sample every entry and key by the immediate caller.
+	 */
+	public ContentionProfiler() {
+		this(1, 1);
+	}
+
+	/**
+	 * @param sampleEvery Sample on average one in this many entries.
+	 * @param depth       Number of caller frames that identify a call site.
+	 */
+	public ContentionProfiler(final int sampleEvery, final int depth) {
+		if (sampleEvery < 1)
+			throw new IllegalArgumentException("sampleEvery must be at least 1");
+		if (depth < 1)
+			throw new IllegalArgumentException("depth must be at least 1");
+		this.sampleEvery = sampleEvery;
+		this.depth = depth;
+	}
+
+	<R> SuspendableSupplier<R> wrap(final String kind, final SuspendableSupplier<R> method) {
+		if (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0)
+			return method;
+		final Sample sample = new Sample(kind);
+		return () -> {
+			sample.start();
+			try {
+				return method.get();
+			} finally {
+				sample.finish();
+			}
+		};
+	}
+
+	SuspendableRunnable wrap(final String kind, final SuspendableRunnable method) {
+		if (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0)
+			return method;
+		final Sample sample = new Sample(kind);
+		return new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution {
+				sample.start();
+				try {
+					method.run();
+				} finally {
+					sample.finish();
+				}
+			}
+		};
+	}
+
+	private String site(final String kind) {
+		return kind + " at " + StackWalker.getInstance().walk(frames -> frames
+				.filter(frame -> !INTERNAL.contains(outer(frame.getClassName())))
+				.limit(depth)
+				.map(StackWalker.StackFrame::toStackTraceElement)
+				.map(StackTraceElement::toString)
+				.collect(Collectors.joining(" < ")));
+	}
+
+	private static String outer(final String className) {
+		final int inner = className.indexOf('$');
+		return inner < 0 ? className : className.substring(0, inner);
+	}
+
+	/**
+	 * Per call site hold and wait times, with the sites that held their sections longest in total first.
+	 *
+	 * @return A human readable table.  Times are in microseconds.
+	 */
+	public String report() {
+		final List<Site> ranked = new ArrayList<>(sites.values());
+		ranked.sort(Comparator.comparingLong((Site site) -> site.hold.total()).reversed());
+		final StringBuilder out = new StringBuilder();
+		for (final Site site : ranked) {
+			out.append(site.name).append('\n');
+			line(out, "hold", site.hold);
+			line(out, "wait", site.wait);
+		}
+		return out.toString();
+	}
+
+	private static void line(final StringBuilder out, final String label, final Histogram histogram) {
+		out.append(String.format(
+				"  %s: count %d total %d mean %.1f p50 %d p99 %d max %d\n",
+				label,
+				histogram.count(),
+				histogram.total() / 1000,
+				histogram.mean() / 1000,
+				histogram.percentile(50) / 1000,
+				histogram.percentile(99) / 1000,
+				histogram.max() / 1000
+		));
+	}
+
+	/**
+	 * Forget all samples.
+	 */
+	public void reset() {
+		sites.clear();
+	}
+
+	private static class Site {
+		final String name;
+		final Histogram hold = new Histogram();
+		final Histogram wait = new Histogram();
+
+		Site(final String name) {
+			this.name = name;
+		}
+	}
+
+	private class Sample {
+		private final String site;
+		private final long entered = System.nanoTime();
+		private long started;
+
+		Sample(final String kind) {
+			this.site = site(kind);
+		}
+
+		void start() {
+			started = System.nanoTime();
+		}
+
+		void finish() {
+			final Site site = sites.computeIfAbsent(this.site, Site::new);
+			site.wait.record(started - entered);
+			site.hold.record(System.nanoTime() - started);
+		}
+	}
+}
@@ -3,6 +3,8 @@ package com.zarbosoft.coroutines;
 import com.zarbosoft.coroutinescore.SuspendExecution;
 import com.zarbosoft.coroutinescore.SuspendableRunnable;
 
+import java.util.concurrent.CancellationException;
+
 /**
  * Create a coroutine.  A coroutine is roughly a method that can be paused at any point and then resumed from that
  * point.  Additionally, any call at any depth in the call tree of the method can suspend.  This is useful for
@@ -27,6 +29,8 @@ public class Coroutine {
 	Object inValue = null;
 	Runnable runAfter = null;
 	private RuntimeException inException = null;
+	private volatile boolean cancelled = false;
+	private boolean cancelRaised = false;
 
 	/**
 	 * Creates a coroutine for the provided method. Nothing is run until process is called.
@@ -86,12 +90,7 @@ public class Coroutine {
 	public static <T> T yield() throws SuspendExecution {
 		com.zarbosoft.coroutinescore.Coroutine.yield();
 		final Coroutine self = getActiveCoroutine();
-		if (self.inException != null) {
-			final RuntimeException e = self.inException;
-			self.inException = null;
-			throw e;
-		}
-		return (T) self.inValue;
+		return self.resumed();
 	}
 
 	/**
@@ -113,12 +112,20 @@ public class Coroutine {
 		self.runAfter = runAfter;
 		com.zarbosoft.coroutinescore.Coroutine.yield();
 		self.runAfter = null;
-		if (self.inException != null) {
-			final RuntimeException e = self.inException;
-			self.inException = null;
+		return self.resumed();
+	}
+
+	private <T> T resumed() {
+		if (inException != null) {
+			final RuntimeException e = inException;
+			inException = null;
 			throw e;
 		}
-		return (T) self.inValue;
+		if (cancelled && !cancelRaised) {
+			cancelRaised = true;
+			throw new CancellationException();
+		}
+		return (T) inValue;
 	}
 
 	/**
@@ -130,6 +137,23 @@ public class Coroutine {
 		return ((InnerCoroutine) com.zarbosoft.coroutinescore.Coroutine.getActiveCoroutine()).outer;
 	}
 
+	/**
+	 * Request that the coroutine stop.  Coroutines can't be interrupted while running, so the next time the coroutine
+	 * is resumed a CancellationException is raised from the suspension point instead of returning the resumption
+	 * value.  It's only raised once, so cleanup (in finally or catch blocks) can still suspend.  Cancelling a finished
+	 * coroutine does nothing.
+	 */
+	public final void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if cancel has been called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
 	/**
 	 * @return true if coroutine is finished
 	 */
@@ -0,0 +1,282 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.zarbosoft.coroutines.Cohelp.logger;
+
+/**
+ * A single thread running tasks and timers, for keeping coroutines on one thread (see CoroutineEventLoopGroup for one
+ * per core).  Pass the loop as the executor to Cohelp, critical sections, etc. and coroutines will always resume on it;
+ * nothing pins a coroutine implicitly.  CoroutineEventLoop.current() returns the loop of the running thread.  Don't run
+ * blocking work on the loop - use Cohelp.unblock(blockingExecutor, loop, work) to run it elsewhere and resume here.
+ * <p>
+ * Tasks from any thread go through a lock-free queue; only the loop thread takes from it.  Timers are kept in a heap
+ * owned by the loop thread, so scheduling doesn't need another thread.  The thread parks when there's nothing to run
+ * and is only woken by producers when it's parked.
+ * <p>
+ * On shutdown queued tasks are run but delayed tasks that haven't started are dropped.
+ */
+public class CoroutineEventLoop extends AbstractExecutorService implements ScheduledExecutorService {
+	private final static int BATCH_SIZE = 1024;
+	private final static ThreadLocal<CoroutineEventLoop> current = new ThreadLocal<>();
+
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final PriorityQueue<Timer<?>> timers = new PriorityQueue<>();
+	private final AtomicBoolean parked = new AtomicBoolean(false);
+	private final AtomicLong sequence = new AtomicLong();
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	private volatile boolean shutdown = false;
+
+	public CoroutineEventLoop() {
+		this("coroutine-loop");
+	}
+
+	/**
+	 * @param name Thread name
+	 */
+	public CoroutineEventLoop(final String name) {
+		thread = new Thread(this::loop, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return The loop running the current thread, or null if not on a loop thread.
+	 */
+	public static CoroutineEventLoop current() {
+		return current.get();
+	}
+
+	/**
+	 * @return true if called from this loop's thread.
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Suspend the current coroutine and resume it on another loop.  Use to move work between loops explicitly.
+	 *
+	 * @param target
+	 * @throws SuspendExecution
+	 */
+	public static void moveTo(final CoroutineEventLoop target) throws SuspendExecution {
+		if (target.inLoop())
+			return;
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		Coroutine.yieldThen(() -> {
+			target.execute(() -> {
+				try {
+					coroutine.process(null);
+				} catch (final Throwable e) {
+					Cohelp.fatal(target, e);
+				}
+			});
+		});
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (shutdown)
+			throw new RejectedExecutionException("Event loop is shut down");
+		tasks.add(command);
+		wake();
+	}
+
+	private void wake() {
+		if (!inLoop() && parked.compareAndSet(true, false))
+			LockSupport.unpark(thread);
+	}
+
+	private void loop() {
+		current.set(this);
+		try {
+			while (true) {
+				final long now = System.nanoTime();
+				Timer<?> timer;
+				while ((timer = timers.peek()) != null && timer.time - now <= 0) {
+					timers.poll();
+					timer.run();
+				}
+				int ran = 0;
+				Runnable task;
+				while (ran < BATCH_SIZE && (task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (final Throwable e) {
+						logger.error("Uncaught error in event loop task", e);
+					}
+					ran += 1;
+				}
+				if (ran > 0)
+					continue;
+				if (shutdown)
+					break;
+				parked.set(true);
+				// Recheck after publishing parked so a producer that missed it doesn't go unnoticed
+				if (!tasks.isEmpty() || shutdown) {
+					parked.set(false);
+					continue;
+				}
+				timer = timers.peek();
+				if (timer == null)
+					LockSupport.park(this);
+				else
+					LockSupport.parkNanos(this, timer.time - System.nanoTime());
+				parked.set(false);
+			}
+		} finally {
+			timers.forEach(t -> t.cancel(false));
+			timers.clear();
+			current.remove();
+			terminated.countDown();
+		}
+	}
+
+	private <V> Timer<V> addTimer(final Timer<V> timer) {
+		if (shutdown)
+			throw new RejectedExecutionException("Event loop is shut down");
+		if (inLoop())
+			timers.add(timer);
+		else
+			execute(() -> timers.add(timer));
+		return timer;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+		return addTimer(new Timer<Void>(Executors.<Void>callable(command, null), deadline(delay, unit), 0));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+		return addTimer(new Timer<>(callable, deadline(delay, unit), 0));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(
+			final Runnable command, final long initialDelay, final long period, final TimeUnit unit
+	) {
+		if (period <= 0)
+			throw new IllegalArgumentException("period must be positive");
+		return addTimer(new Timer<Void>(
+				Executors.<Void>callable(command, null),
+				deadline(initialDelay, unit),
+				unit.toNanos(period)
+		));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(
+			final Runnable command, final long initialDelay, final long delay, final TimeUnit unit
+	) {
+		if (delay <= 0)
+			throw new IllegalArgumentException("delay must be positive");
+		return addTimer(new Timer<Void>(
+				Executors.<Void>callable(command, null),
+				deadline(initialDelay, unit),
+				-unit.toNanos(delay)
+		));
+	}
+
+	private static long deadline(final long delay, final TimeUnit unit) {
+		return System.nanoTime() + unit.toNanos(Math.max(0, delay));
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		if (parked.compareAndSet(true, false))
+			LockSupport.unpark(thread);
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> out = new ArrayList<>();
+		shutdown();
+		Runnable task;
+		while ((task = tasks.poll()) != null)
+			out.add(task);
+		return out;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	private class Timer<V> extends FutureTask<V> implements ScheduledFuture<V> {
+		long time;
+		/**
+		 * Positive for fixed rate, negative for fixed delay, 0 for one-shot.
+		 */
+		final long period;
+		final long order = sequence.getAndIncrement();
+
+		Timer(final Callable<V> callable, final long time, final long period) {
+			super(callable);
+			this.time = time;
+			this.period = period;
+		}
+
+		@Override
+		public long getDelay(final TimeUnit unit) {
+			return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(final Delayed other) {
+			if (other == this)
+				return 0;
+			if (other instanceof Timer) {
+				final Timer<?> timer = (Timer<?>) other;
+				final long diff = time - timer.time;
+				if (diff != 0)
+					return diff < 0 ? -1 : 1;
+				return Long.compare(order, timer.order);
+			}
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override
+		public void run() {
+			if (period == 0) {
+				super.run();
+				return;
+			}
+			if (!runAndReset() || shutdown)
+				return;
+			time = period > 0 ? time + period : System.nanoTime() - period;
+			timers.add(this);
+		}
+	}
+}
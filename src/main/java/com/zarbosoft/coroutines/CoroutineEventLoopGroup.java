@@ -0,0 +1,73 @@
+package com.zarbosoft.coroutines;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of CoroutineEventLoops, by default one per available processor.  Start each coroutine on a loop (next()
+ * or forKey()) and pass that loop as its executor so it stays there; move it with CoroutineEventLoop.moveTo.
+ * <p>
+ * Java can't pin threads to cores, so this relies on the OS keeping each busy loop thread on a core.
+ */
+public class CoroutineEventLoopGroup {
+	private final CoroutineEventLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+
+	public CoroutineEventLoopGroup() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param size Number of loops.
+	 */
+	public CoroutineEventLoopGroup(final int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("size must be at least 1");
+		loops = new CoroutineEventLoop[size];
+		for (int i = 0; i < size; ++i)
+			loops[i] = new CoroutineEventLoop("coroutine-loop-" + i);
+	}
+
+	public int size() {
+		return loops.length;
+	}
+
+	public CoroutineEventLoop get(final int index) {
+		return loops[index];
+	}
+
+	/**
+	 * @return Loops in turn.
+	 */
+	public CoroutineEventLoop next() {
+		return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+	}
+
+	/**
+	 * @param key
+	 * @return The same loop for equal keys, so work on a key is always on one thread.
+	 */
+	public CoroutineEventLoop forKey(final Object key) {
+		return loops[KeyedCriticalSection.stripe(key, loops.length)];
+	}
+
+	public void shutdown() {
+		for (final CoroutineEventLoop loop : loops)
+			loop.shutdown();
+	}
+
+	/**
+	 * @param timeout For all loops together.
+	 * @param unit
+	 * @return true if all loops terminated.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (final CoroutineEventLoop loop : loops) {
+			if (!loop.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,227 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.coroutinescore.SuspendableRunnable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fork child coroutines onto an executor and wait for them as a group.  A joining coroutine suspends once no matter
+ * how many children there are.
+ * <p>
+ * With Policy.ALL (the default), if a child fails all remaining children are cancelled (see Coroutine.cancel) and
+ * the failure is raised from join.  With Policy.ANY, once a child succeeds all remaining children are cancelled and
+ * its result is returned from joinAny.  Either way the policy applies from the moment the child finishes, whether or
+ * not the scope is being joined yet.  Children that haven't started yet won't start after cancellation.
+ */
+public class CoroutineScope {
+	public enum Policy {
+		/**
+		 * Wait for every child with join; the first failure cancels the rest.
+		 */
+		ALL,
+		/**
+		 * Wait for the first success with joinAny; the first success cancels the rest.
+		 */
+		ANY
+	}
+
+	private final ExecutorService executor;
+	private final Policy policy;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Set<Coroutine> running = new HashSet<>();
+	private int pending = 0;
+	private boolean cancelled = false;
+	private RuntimeException failure = null;
+	private boolean anyDone = false;
+	private Object anyValue = null;
+	private Coroutine waiter = null;
+
+	/**
+	 * Policy.ALL
+	 *
+	 * @param executor Children are started in this executor, and joining coroutines are resumed in it.
+	 */
+	public CoroutineScope(final ExecutorService executor) {
+		this(executor, Policy.ALL);
+	}
+
+	/**
+	 * @param executor Children are started in this executor, and joining coroutines are resumed in it.
+	 * @param policy   Whether the scope is joined with join or joinAny.
+	 */
+	public CoroutineScope(final ExecutorService executor, final Policy policy) {
+		this.executor = executor;
+		this.policy = policy;
+	}
+
+	/**
+	 * Start a child coroutine.
+	 *
+	 * @param method Child work.
+	 * @param <T>
+	 * @return A future completed with the child's result.
+	 */
+	public <T> CompletableFuture<T> fork(final SuspendableSupplier<T> method) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Coroutine[] child = new Coroutine[1];
+		child[0] = new Coroutine(new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution {
+				T value = null;
+				RuntimeException error = null;
+				if (isCancelled()) {
+					error = new CancellationException();
+				} else {
+					try {
+						value = method.get();
+					} catch (final RuntimeException e) {
+						error = e;
+					}
+				}
+				finished(child[0], value, error);
+				if (error == null)
+					future.complete(value);
+				else
+					future.completeExceptionally(error);
+			}
+		});
+		lock.lock();
+		pending += 1;
+		running.add(child[0]);
+		lock.unlock();
+		executor.submit(() -> {
+			try {
+				child[0].process();
+			} catch (final Throwable e) {
+				Cohelp.fatal(executor, e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Wait until all children started so far have completed.  If any child fails the remaining children are cancelled
+	 * and the first failure is raised immediately, without waiting for the cancelled children to finish.
+	 *
+	 * @throws SuspendExecution
+	 */
+	public void join() throws SuspendExecution {
+		if (policy != Policy.ALL)
+			throw new IllegalStateException("join requires Policy.ALL");
+		lock.lock();
+		if (failure != null) {
+			lock.unlock();
+			throw failure;
+		}
+		if (pending == 0) {
+			lock.unlock();
+			return;
+		}
+		suspendJoin();
+	}
+
+	/**
+	 * Wait until any child completes successfully (the rest are cancelled when it does).  If every child fails, the
+	 * first failure is raised.
+	 *
+	 * @param <T>
+	 * @return Result of the first child to complete successfully.
+	 * @throws SuspendExecution
+	 */
+	public <T> T joinAny() throws SuspendExecution {
+		if (policy != Policy.ANY)
+			throw new IllegalStateException("joinAny requires Policy.ANY");
+		lock.lock();
+		if (anyDone) {
+			lock.unlock();
+			return (T) anyValue;
+		}
+		if (pending == 0) {
+			final RuntimeException failure = this.failure;
+			lock.unlock();
+			if (failure == null)
+				throw new IllegalStateException("No children to join");
+			throw failure;
+		}
+		return suspendJoin();
+	}
+
+	private <T> T suspendJoin() throws SuspendExecution {
+		if (waiter != null) {
+			lock.unlock();
+			throw new IllegalStateException("Scope is already being joined");
+		}
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			waiter = self;
+			lock.unlock();
+		});
+	}
+
+	/**
+	 * Cancel all running children and prevent unstarted children from starting.
+	 */
+	public void cancel() {
+		lock.lock();
+		cancelled = true;
+		final List<Coroutine> cancel = new ArrayList<>(running);
+		lock.unlock();
+		for (final Coroutine coroutine : cancel)
+			coroutine.cancel();
+	}
+
+	public boolean isCancelled() {
+		lock.lock();
+		try {
+			return cancelled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void finished(final Coroutine child, final Object value, final RuntimeException error) {
+		lock.lock();
+		pending -= 1;
+		running.remove(child);
+		boolean cancelRest = false;
+		if (error == null && !anyDone) {
+			anyDone = true;
+			anyValue = value;
+			cancelRest = policy == Policy.ANY;
+		}
+		if (error != null && failure == null && !(error instanceof CancellationException && cancelled)) {
+			failure = error;
+			cancelRest = policy == Policy.ALL;
+		}
+		Coroutine wake = null;
+		Object wakeValue = null;
+		RuntimeException wakeError = null;
+		if (waiter != null) {
+			if (policy == Policy.ALL && (failure != null || pending == 0)) {
+				wake = waiter;
+				wakeError = failure;
+			} else if (policy == Policy.ANY && (anyDone || pending == 0)) {
+				wake = waiter;
+				if (anyDone)
+					wakeValue = anyValue;
+				else
+					wakeError = failure == null ? new CancellationException() : failure;
+			}
+		}
+		if (wake != null)
+			waiter = null;
+		lock.unlock();
+		if (cancelRest)
+			cancel();
+		if (wake != null)
+			Cohelp.resume(executor, wake, wakeValue, wakeError);
+	}
+}
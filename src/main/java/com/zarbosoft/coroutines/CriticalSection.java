@@ -2,17 +2,33 @@ package com.zarbosoft.coroutines;
 
 import com.zarbosoft.coroutinescore.SuspendExecution;
 
-import java.util.ArrayDeque;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Create a critical section around a method that will stop coroutines rather than blocking them.
+ * <p>
+ * Waiting coroutines are served by priority, with aging so low priorities aren't starved (see the constructor).
  */
 public class CriticalSection {
-	private final ReentrantLock lock = new ReentrantLock();
-	private boolean locked = false;
-	private final ArrayDeque<Waiting> queue = new ArrayDeque<>();
+	final ReentrantLock lock = new ReentrantLock();
+	boolean locked = false;
+	final WaitQueue queue;
+	private volatile ContentionProfiler profiler = null;
+
+	public CriticalSection() {
+		this.queue = new WaitQueue(WaitQueue.DEFAULT_AGING_NANOS);
+	}
+
+	/**
+	 * @param aging A waiter with priority p is served as if it had started waiting p * aging earlier.  With 0 waiters
+	 *              are served in arrival order regardless of priority.
+	 * @param unit
+	 */
+	public CriticalSection(final long aging, final TimeUnit unit) {
+		this.queue = new WaitQueue(unit.toNanos(aging));
+	}
 
 	/**
 	 * Run the method if no other coroutine is currently executing it. Otherwise suspend, and resume when the other
@@ -23,11 +39,32 @@ public class CriticalSection {
 	 * @throws SuspendExecution
 	 */
 	public <R> R call(final ExecutorService executor, SuspendableSupplier<R> method) throws SuspendExecution {
+		return call(executor, 0, method);
+	}
+
+	/**
+	 * Like call, but if this has to wait it's served ahead of waiters with lower priority.
+	 *
+	 * @param executor Worker to resume coroutine on if this suspends.
+	 * @param priority Higher is served sooner.  The default is 0.
+	 * @return Wrapped method's return.
+	 * @throws SuspendExecution
+	 */
+	public <R> R call(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		final ContentionProfiler profiler = this.profiler;
+		return enter(executor, priority, profiler == null ? method : profiler.wrap("call", method));
+	}
+
+	private <R> R enter(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
 		lock.lock();
 		if (locked) {
 			Coroutine coroutine = Coroutine.getActiveCoroutine();
 			return Coroutine.yieldThen(() -> {
-				queue.add(new Waiting(executor, coroutine, method));
+				queue.add(new Waiting(executor, coroutine, method), priority);
 				lock.unlock();
 			});
 		}
@@ -41,14 +78,36 @@ public class CriticalSection {
 		}
 	}
 
-	private void iterate() throws SuspendExecution {
+	/**
+	 * Start or stop recording where calls to this section come from and how long they wait and hold it.
+	 *
+	 * @param profiler May be null to stop.
+	 */
+	public void setProfiler(final ContentionProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * @return A condition that coroutines in this section can wait on.
+	 */
+	public CoCondition newCondition() {
+		return new CoCondition(this);
+	}
+
+	/**
+	 * Hand the section to the next waiter, or unlock it.
+	 */
+	void iterate() {
 		lock.lock();
 		Waiting next = queue.poll();
 		if (next == null) {
 			locked = false;
 		}
 		lock.unlock();
-		if (next != null) {
+		if (next != null && next.method == null) {
+			// Coroutine signalled from a condition, already in the section
+			next.executor.execute(() -> next.coroutine.process(null));
+		} else if (next != null) {
 			Cohelp.submit(next.executor, () -> {
 				try {
 					final Object out = next.method.get();
@@ -65,7 +124,14 @@ public class CriticalSection {
 	static class Waiting {
 		public final ExecutorService executor;
 		public final Coroutine coroutine;
+		/**
+		 * Null if the coroutine is waiting to re-enter after a condition signal.
+		 */
 		public final SuspendableSupplier method;
+		/**
+		 * When the waiter was queued (nanoTime).
+		 */
+		long since;
 
 		public Waiting(final ExecutorService executor, final Coroutine coroutine, final SuspendableSupplier method) {
 			this.executor = executor;
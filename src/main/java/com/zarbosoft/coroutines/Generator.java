@@ -14,10 +14,10 @@ import static com.zarbosoft.coroutines.Coroutine.yield;
 public class Generator<T> {
 	private final static Object END = new Object();
 
-	private Generator() {
+	Generator() {
 	}
 
-	private T value;
+	T value;
 
 	public void yieldValue(T value) throws SuspendExecution {
 		this.value = value;
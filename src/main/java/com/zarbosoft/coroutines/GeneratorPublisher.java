@@ -0,0 +1,120 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.coroutinescore.SuspendableRunnable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish the values a generator method yields to Flow subscribers.  Each subscription runs its own instance of the
+ * method (like Generator.stream).  The method is only resumed while the subscriber has outstanding demand, and all
+ * currently requested values are produced in a single executor task.
+ * <p>
+ * As with Generator.stream the method may only suspend by yielding values.
+ *
+ * @param <T>
+ */
+public class GeneratorPublisher<T> implements Flow.Publisher<T> {
+	private final ExecutorService executor;
+	private final SuspendableConsumer<Generator<T>> runnable;
+
+	/**
+	 * @param executor Generator method is run in this executor, and subscribers are signalled from it.
+	 * @param runnable Generator method.
+	 */
+	public GeneratorPublisher(final ExecutorService executor, final SuspendableConsumer<Generator<T>> runnable) {
+		this.executor = executor;
+		this.runnable = runnable;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super T> subscriber) {
+		final GeneratorSubscription subscription = new GeneratorSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	private class GeneratorSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super T> subscriber;
+		private final Generator<T> generator = new Generator<>();
+		private final Coroutine coroutine;
+		private final AtomicLong demand = new AtomicLong(0);
+		private final AtomicInteger work = new AtomicInteger(0);
+		private volatile boolean cancelled = false;
+		private Throwable invalidRequest = null;
+
+		GeneratorSubscription(final Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+			this.coroutine = new Coroutine(new SuspendableRunnable() {
+				@Override
+				public void run() throws SuspendExecution {
+					runnable.apply(generator);
+				}
+			});
+		}
+
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("Requested non-positive number of elements");
+			} else {
+				long current;
+				long next;
+				do {
+					current = demand.get();
+					next = current + n;
+					if (next < 0)
+						next = Long.MAX_VALUE;
+				} while (!demand.compareAndSet(current, next));
+			}
+			if (work.getAndIncrement() == 0)
+				executor.execute(this::drain);
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Only one drain runs at a time, so signals to the subscriber are serialized.
+		 */
+		private void drain() {
+			int missed = 1;
+			while (true) {
+				if (cancelled)
+					return;
+				if (invalidRequest != null) {
+					cancelled = true;
+					subscriber.onError(invalidRequest);
+					return;
+				}
+				long emitted = 0;
+				final long requested = demand.get();
+				while (emitted < requested && !cancelled) {
+					try {
+						coroutine.process();
+					} catch (final Throwable e) {
+						cancelled = true;
+						subscriber.onError(e);
+						return;
+					}
+					if (coroutine.isFinished()) {
+						cancelled = true;
+						subscriber.onComplete();
+						return;
+					}
+					subscriber.onNext(generator.value);
+					emitted += 1;
+				}
+				if (requested != Long.MAX_VALUE)
+					demand.addAndGet(-emitted);
+				missed = work.addAndGet(-missed);
+				if (missed == 0)
+					return;
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.zarbosoft.coroutines;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent log-linear histogram of non-negative longs (usually nanoseconds).  Each power of two range is split into
+ * 16 buckets, so recorded values are kept to within about 6%, in a fixed 960 slots regardless of range.
+ */
+class Histogram {
+	private final static int SUB_BITS = 4;
+	private final static int SUB = 1 << SUB_BITS;
+	private final static int SIZE = (64 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+	private final AtomicLong count = new AtomicLong();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	void record(final long value) {
+		record(value, 1);
+	}
+
+	/**
+	 * @param value
+	 * @param times Record the value this many times.
+	 */
+	void record(long value, final long times) {
+		if (value < 0)
+			value = 0;
+		counts.addAndGet(index(value), times);
+		count.addAndGet(times);
+		total.add(value * times);
+		max.accumulate(value);
+	}
+
+	private static int index(final long value) {
+		if (value < SUB)
+			return (int) value;
+		final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		return (magnitude - SUB_BITS + 1) * SUB + (int) (value >>> (magnitude - SUB_BITS)) - SUB;
+	}
+
+	/**
+	 * @param index
+	 * @return The largest value that falls in the bucket.
+	 */
+	private static long upper(final int index) {
+		if (index < SUB)
+			return index;
+		final int shift = index / SUB - 1;
+		final long sub = SUB + index % SUB;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	long count() {
+		return count.get();
+	}
+
+	long total() {
+		return total.sum();
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	double mean() {
+		final long count = count();
+		return count == 0 ? 0 : (double) total() / count;
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return An upper bound on the value at the percentile, or 0 if nothing's been recorded.
+	 */
+	long percentile(final double percentile) {
+		final long count = count();
+		if (count == 0)
+			return 0;
+		final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < SIZE; ++i) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upper(i), max());
+		}
+		return max();
+	}
+
+	void reset() {
+		for (int i = 0; i < SIZE; ++i)
+			counts.set(i, 0);
+		count.set(0);
+		total.reset();
+		max.reset();
+	}
+}
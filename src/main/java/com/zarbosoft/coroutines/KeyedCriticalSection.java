@@ -0,0 +1,126 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A critical section per key, like a CriticalSection for each key but without keeping one around for every key.
+ * <p>
+ * A key only has state while some coroutine is in its section.  An uncontended key is marked with a shared marker (no
+ * allocation beyond the map's own node), a queue is created when a second coroutine arrives, and the key is removed
+ * when the last coroutine leaves, so memory is proportional to the number of busy keys.
+ * <p>
+ * Alternatively the keys can be striped over a fixed number of sections.  This uses constant memory but keys that share
+ * a stripe exclude each other.
+ *
+ * @param <K>
+ */
+public class KeyedCriticalSection<K> {
+	private final static Object HELD = new Object();
+
+	private final ConcurrentHashMap<K, Object> keys;
+	private final CriticalSection[] stripes;
+
+	/**
+	 * Keep state for busy keys only.
+	 */
+	public KeyedCriticalSection() {
+		this.keys = new ConcurrentHashMap<>();
+		this.stripes = null;
+	}
+
+	/**
+	 * @param stripes Number of sections keys are distributed over.
+	 */
+	public KeyedCriticalSection(final int stripes) {
+		if (stripes < 1)
+			throw new IllegalArgumentException("stripes must be at least 1");
+		this.keys = null;
+		this.stripes = new CriticalSection[stripes];
+		for (int i = 0; i < stripes; ++i)
+			this.stripes[i] = new CriticalSection();
+	}
+
+	static int stripe(final Object key, final int stripes) {
+		final int hash = key.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), stripes);
+	}
+
+	/**
+	 * Run the method if no other coroutine is currently in the key's section. Otherwise suspend, and resume when the
+	 * other coroutines have finished.
+	 *
+	 * @param key
+	 * @param executor Worker to resume coroutine on if this suspends.
+	 * @param method
+	 * @return Wrapped method's return.
+	 * @throws SuspendExecution
+	 */
+	public <R> R call(
+			final K key, final ExecutorService executor, final SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		if (stripes != null)
+			return stripes[stripe(key, stripes.length)].call(executor, method);
+		if (keys.putIfAbsent(key, HELD) == null) {
+			try {
+				return method.get();
+			} finally {
+				release(key);
+			}
+		}
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			final CriticalSection.Waiting waiting = new CriticalSection.Waiting(executor, coroutine, method);
+			final boolean[] acquired = new boolean[] {false};
+			keys.compute(key, (k, state) -> {
+				if (state == null) {
+					// Released since trying
+					acquired[0] = true;
+					return HELD;
+				}
+				final ArrayDeque<CriticalSection.Waiting> queue =
+						state == HELD ? new ArrayDeque<>() : (ArrayDeque<CriticalSection.Waiting>) state;
+				queue.add(waiting);
+				return queue;
+			});
+			if (acquired[0])
+				submit(key, waiting);
+		});
+	}
+
+	private void release(final K key) {
+		final CriticalSection.Waiting[] next = new CriticalSection.Waiting[1];
+		keys.computeIfPresent(key, (k, state) -> {
+			if (state == HELD)
+				return null;
+			final ArrayDeque<CriticalSection.Waiting> queue = (ArrayDeque<CriticalSection.Waiting>) state;
+			next[0] = queue.poll();
+			return queue.isEmpty() ? HELD : queue;
+		});
+		if (next[0] != null)
+			submit(key, next[0]);
+	}
+
+	private void submit(final K key, final CriticalSection.Waiting next) {
+		Cohelp.submit(next.executor, () -> {
+			try {
+				final Object out = next.method.get();
+				release(key);
+				next.coroutine.process(out);
+			} catch (final RuntimeException e) {
+				release(key);
+				next.coroutine.processThrow(e);
+			}
+		});
+	}
+
+	/**
+	 * @return Number of keys currently in use (always 0 if striped).
+	 */
+	public int size() {
+		return keys == null ? 0 : keys.size();
+	}
+}
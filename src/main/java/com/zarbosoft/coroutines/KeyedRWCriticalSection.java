@@ -0,0 +1,177 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A RWCriticalSection per key, with state only for busy keys like KeyedCriticalSection.  Prioritizes reads.
+ * <p>
+ * Uncontended keys are stored as a reader count (a shared boxed integer for small counts) or a shared writing marker.
+ * Queues are only allocated when a coroutine has to wait, and the key is removed when the last coroutine leaves.
+ *
+ * @param <K>
+ */
+public class KeyedRWCriticalSection<K> {
+	private final static Object WRITING = new Object();
+
+	private final ConcurrentHashMap<K, Object> keys;
+	private final RWCriticalSection[] stripes;
+
+	/**
+	 * Keep state for busy keys only.
+	 */
+	public KeyedRWCriticalSection() {
+		this.keys = new ConcurrentHashMap<>();
+		this.stripes = null;
+	}
+
+	/**
+	 * @param stripes Number of sections keys are distributed over.
+	 */
+	public KeyedRWCriticalSection(final int stripes) {
+		if (stripes < 1)
+			throw new IllegalArgumentException("stripes must be at least 1");
+		this.keys = null;
+		this.stripes = new RWCriticalSection[stripes];
+		for (int i = 0; i < stripes; ++i)
+			this.stripes[i] = new RWCriticalSection();
+	}
+
+	public <R> R read(
+			final K key, final ExecutorService executor, final SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		if (stripes != null)
+			return stripes[KeyedCriticalSection.stripe(key, stripes.length)].read(executor, method);
+		return enter(key, executor, true, method);
+	}
+
+	public <R> R write(
+			final K key, final ExecutorService executor, final SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		if (stripes != null)
+			return stripes[KeyedCriticalSection.stripe(key, stripes.length)].write(executor, method);
+		return enter(key, executor, false, method);
+	}
+
+	private <R> R enter(
+			final K key, final ExecutorService executor, final boolean read, final SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		if (acquire(key, read, null)) {
+			try {
+				return method.get();
+			} finally {
+				release(key, read);
+			}
+		}
+		final Coroutine coroutine = Coroutine.getActiveCoroutine();
+		return Coroutine.yieldThen(() -> {
+			final CriticalSection.Waiting waiting = new CriticalSection.Waiting(executor, coroutine, method);
+			if (acquire(key, read, waiting))
+				submit(key, read, waiting);
+		});
+	}
+
+	/**
+	 * @param waiting If not null, queued if the key can't be acquired.
+	 * @return true if acquired.
+	 */
+	private boolean acquire(final K key, final boolean read, final CriticalSection.Waiting waiting) {
+		final boolean[] acquired = new boolean[] {false};
+		keys.compute(key, (k, state) -> {
+			if (state == null) {
+				acquired[0] = true;
+				return read ? (Object) 1 : WRITING;
+			}
+			if (read && state instanceof Integer) {
+				acquired[0] = true;
+				return (Integer) state + 1;
+			}
+			if (waiting == null)
+				return state;
+			final State queued;
+			if (state instanceof State)
+				queued = (State) state;
+			else {
+				queued = new State();
+				if (state == WRITING)
+					queued.writing = true;
+				else
+					queued.readers = (Integer) state;
+			}
+			if (read && !queued.writing) {
+				acquired[0] = true;
+				queued.readers += 1;
+			} else
+				(read ? queued.readQueue : queued.writeQueue).add(waiting);
+			return queued;
+		});
+		return acquired[0];
+	}
+
+	private void release(final K key, final boolean read) {
+		final List<CriticalSection.Waiting> next = new ArrayList<>();
+		final boolean[] nextRead = new boolean[] {false};
+		keys.computeIfPresent(key, (k, state) -> {
+			if (state == WRITING)
+				return null;
+			if (state instanceof Integer) {
+				final int readers = (Integer) state - 1;
+				return readers == 0 ? null : (Object) readers;
+			}
+			final State queued = (State) state;
+			if (read)
+				queued.readers -= 1;
+			else
+				queued.writing = false;
+			if (!queued.readQueue.isEmpty()) {
+				// Readers only wait on a writer, so this is after a write
+				queued.readers += queued.readQueue.size();
+				next.addAll(queued.readQueue);
+				queued.readQueue.clear();
+				nextRead[0] = true;
+			} else if (queued.readers == 0 && !queued.writeQueue.isEmpty()) {
+				queued.writing = true;
+				next.add(queued.writeQueue.poll());
+			}
+			if (!queued.readQueue.isEmpty() || !queued.writeQueue.isEmpty())
+				return queued;
+			if (queued.writing)
+				return WRITING;
+			return queued.readers == 0 ? null : (Object) queued.readers;
+		});
+		for (final CriticalSection.Waiting waiting : next)
+			submit(key, nextRead[0], waiting);
+	}
+
+	private void submit(final K key, final boolean read, final CriticalSection.Waiting next) {
+		Cohelp.submit(next.executor, () -> {
+			try {
+				final Object out = next.method.get();
+				release(key, read);
+				next.coroutine.process(out);
+			} catch (final RuntimeException e) {
+				release(key, read);
+				next.coroutine.processThrow(e);
+			}
+		});
+	}
+
+	/**
+	 * @return Number of keys currently in use (always 0 if striped).
+	 */
+	public int size() {
+		return keys == null ? 0 : keys.size();
+	}
+
+	private static class State {
+		int readers = 0;
+		boolean writing = false;
+		final ArrayDeque<CriticalSection.Waiting> readQueue = new ArrayDeque<>();
+		final ArrayDeque<CriticalSection.Waiting> writeQueue = new ArrayDeque<>();
+	}
+}
@@ -18,6 +18,7 @@ public class ManualExecutor implements ScheduledExecutorService {
 		final LocalDateTime at;
 		final Runnable runnable;
 		final Duration repeat;
+		boolean cancelled = false;
 
 		private Scheduled(final LocalDateTime at, final Runnable runnable, final Duration repeat) {
 			this.at = at;
@@ -54,6 +55,7 @@ public class ManualExecutor implements ScheduledExecutorService {
 
 			@Override
 			public boolean cancel(final boolean mayInterruptIfRunning) {
+				event.cancelled = true;
 				return scheduled.remove(event);
 			}
 
@@ -85,17 +87,20 @@ public class ManualExecutor implements ScheduledExecutorService {
 		final Coroutine coroutine = Coroutine.getActiveCoroutine();
 		Coroutine.yieldThen(() -> {
 			now = now.plus(amount);
-			final List<Scheduled> reschedule = new ArrayList<>();
-			for (final Scheduled event : scheduled) {
+			// Events scheduled while running due events go in the new list
+			final List<Scheduled> due = scheduled;
+			scheduled = new ArrayList<>();
+			for (final Scheduled event : due) {
+				if (event.cancelled)
+					continue;
 				if (event.at.compareTo(now) <= 0) {
 					event.runnable.run();
-					if (event.repeat != null)
-						reschedule.add(event);
+					if (event.repeat != null && !event.cancelled)
+						scheduled.add(event);
 				} else {
-					reschedule.add(event);
+					scheduled.add(event);
 				}
 			}
-			scheduled = reschedule;
 			sortScheduled();
 			submit(() -> {
 				try {
@@ -110,6 +115,7 @@ public class ManualExecutor implements ScheduledExecutorService {
 	private ChronoUnit toChronoUnit(final TimeUnit unit) {
 		switch (unit) {
 			case NANOSECONDS:
+				return ChronoUnit.NANOS;
 			case MICROSECONDS:
 				return ChronoUnit.MICROS;
 			case MILLISECONDS:
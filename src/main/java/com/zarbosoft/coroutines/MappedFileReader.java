@@ -0,0 +1,99 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Read a file as a sequence of zero-copy slices of memory-mapped regions.  The file is mapped one region at a time;
+ * only moving to a new region does any I/O, and every slice of a region after that is returned without blocking or
+ * suspending.
+ * <p>
+ * Slices remain valid until the mapping is garbage collected, but should be consumed before reading far ahead to keep
+ * the mapped footprint small.
+ */
+public class MappedFileReader {
+	private final FileChannel channel;
+	private final long regionSize;
+	private final int chunkSize;
+	private long regionStart = 0;
+	private MappedByteBuffer region = null;
+
+	/**
+	 * @param channel    File to read; must be open for reading.
+	 * @param regionSize Bytes to map at a time.  Must be a multiple of chunkSize.
+	 * @param chunkSize  Size of the returned slices (the last slice may be smaller).
+	 */
+	public MappedFileReader(final FileChannel channel, final long regionSize, final int chunkSize) {
+		if (regionSize % chunkSize != 0)
+			throw new IllegalArgumentException("regionSize must be a multiple of chunkSize");
+		this.channel = channel;
+		this.regionSize = regionSize;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Get the next slice.  If a new region needs to be mapped, it's mapped and paged in on the executor and the
+	 * coroutine suspends until it's ready.
+	 *
+	 * @param executor Mapping and page-in happen here; coroutine is resumed in this executor afterwards.
+	 * @return A read-only slice or null at the end of the file.
+	 * @throws SuspendExecution
+	 */
+	public ByteBuffer next(final ExecutorService executor) throws SuspendExecution {
+		if (region == null || !region.hasRemaining()) {
+			region = Cohelp.unblock(executor, () -> map());
+			if (region == null)
+				return null;
+		}
+		return slice();
+	}
+
+	/**
+	 * Read the file synchronously as a stream of slices.  Regions are mapped and paged in by the consuming thread.
+	 *
+	 * @return
+	 */
+	public Stream<ByteBuffer> stream() {
+		return Generator.stream(g -> {
+			while (true) {
+				if (region == null || !region.hasRemaining()) {
+					try {
+						region = map();
+					} catch (final IOException e) {
+						throw uncheck(e);
+					}
+					if (region == null)
+						return;
+				}
+				g.yieldValue(slice());
+			}
+		});
+	}
+
+	private MappedByteBuffer map() throws IOException {
+		if (region != null)
+			regionStart += region.capacity();
+		final long size = Math.min(regionSize, channel.size() - regionStart);
+		if (size <= 0)
+			return null;
+		final MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+		out.load();
+		return out;
+	}
+
+	private ByteBuffer slice() {
+		final int size = Math.min(chunkSize, region.remaining());
+		final ByteBuffer out = region.slice();
+		out.limit(size);
+		region.position(region.position() + size);
+		return out;
+	}
+}
@@ -0,0 +1,182 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alternates between reader and writer phases so neither side can starve the other.
+ * <p>
+ * Once a writer is waiting, newly arriving readers wait too and the current reader phase ends when its readers finish.
+ * Then up to writerBatch writers run, one at a time, followed by a reader phase that admits up to readerBatch of the
+ * waiting readers, and so on.  With no writers waiting, readers are admitted without limit.
+ * <p>
+ * Time spent waiting is tallied separately for readers and writers.
+ */
+public class PhaseFairCriticalSection extends RWCriticalSection {
+	private final int readerBatch;
+	private final int writerBatch;
+	private int writers = 0;
+	private long readerWaits = 0;
+	private long readerWaitNanos = 0;
+	private long writerWaits = 0;
+	private long writerWaitNanos = 0;
+
+	/**
+	 * Strictly alternate single writers with all waiting readers.
+	 */
+	public PhaseFairCriticalSection() {
+		this(Integer.MAX_VALUE, 1);
+	}
+
+	/**
+	 * @param readerBatch Maximum waiting readers admitted per reader phase.
+	 * @param writerBatch Maximum writers per writer phase if readers are waiting.
+	 */
+	public PhaseFairCriticalSection(final int readerBatch, final int writerBatch) {
+		this(readerBatch, writerBatch, WaitQueue.DEFAULT_AGING_NANOS, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param readerBatch Maximum waiting readers admitted per reader phase.
+	 * @param writerBatch Maximum writers per writer phase if readers are waiting.
+	 * @param aging       A waiter with priority p is served as if it had started waiting p * aging earlier.
+	 * @param unit
+	 */
+	public PhaseFairCriticalSection(
+			final int readerBatch, final int writerBatch, final long aging, final TimeUnit unit
+	) {
+		super(aging, unit);
+		if (readerBatch < 1)
+			throw new IllegalArgumentException("readerBatch must be at least 1");
+		if (writerBatch < 1)
+			throw new IllegalArgumentException("writerBatch must be at least 1");
+		this.readerBatch = readerBatch;
+		this.writerBatch = writerBatch;
+	}
+
+	@Override
+	<R> R enterRead(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		lock.lock();
+		if (state == STATE_WRITING || !writeQueue.isEmpty()) {
+			Coroutine coroutine = Coroutine.getActiveCoroutine();
+			return Coroutine.yieldThen(() -> {
+				readQueue.add(new CriticalSection.Waiting(executor, coroutine, method), priority);
+				lock.unlock();
+			});
+		}
+		state += 1;
+		lock.unlock();
+
+		try {
+			return method.get();
+		} finally {
+			iterate();
+		}
+	}
+
+	/**
+	 * Called when a reader or writer finishes.  Start the next phase if the current one is over.
+	 *
+	 * @throws SuspendExecution
+	 */
+	@Override
+	void iterate() throws SuspendExecution {
+		final List<CriticalSection.Waiting> readers;
+		CriticalSection.Waiting writer = null;
+
+		lock.lock();
+		final boolean readPhase;
+		if (state == STATE_WRITING) {
+			writers += 1;
+			state = STATE_UNLOCKED;
+			readPhase = !readQueue.isEmpty() && (writers >= writerBatch || writeQueue.isEmpty());
+		} else {
+			state -= 1;
+			if (state != STATE_UNLOCKED) {
+				lock.unlock();
+				return;
+			}
+			readPhase = writeQueue.isEmpty() && !readQueue.isEmpty();
+		}
+		final long now = System.nanoTime();
+		if (readPhase) {
+			writers = 0;
+			readers = writeQueue.isEmpty() ? readQueue.drain() : readQueue.drain(readerBatch);
+			state = readers.size();
+			for (final CriticalSection.Waiting reader : readers) {
+				readerWaits += 1;
+				readerWaitNanos += now - reader.since;
+			}
+		} else {
+			readers = Collections.emptyList();
+			writer = writeQueue.poll();
+			if (writer != null) {
+				state = STATE_WRITING;
+				writerWaits += 1;
+				writerWaitNanos += now - writer.since;
+			} else
+				writers = 0;
+		}
+		lock.unlock();
+
+		if (writer != null)
+			submit(writer);
+		else
+			for (CriticalSection.Waiting reader : readers)
+				submit(reader);
+	}
+
+	/**
+	 * @return Number of readers that have had to wait.
+	 */
+	public long getReaderWaits() {
+		lock.lock();
+		try {
+			return readerWaits;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Total time readers have spent waiting, in nanoseconds.
+	 */
+	public long getReaderWaitNanos() {
+		lock.lock();
+		try {
+			return readerWaitNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Number of writers that have had to wait.
+	 */
+	public long getWriterWaits() {
+		lock.lock();
+		try {
+			return writerWaits;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Total time writers have spent waiting, in nanoseconds.
+	 */
+	public long getWriterWaitNanos() {
+		lock.lock();
+		try {
+			return writerWaitNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
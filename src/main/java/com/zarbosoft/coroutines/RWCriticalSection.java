@@ -3,27 +3,65 @@ package com.zarbosoft.coroutines;
 import com.zarbosoft.coroutinescore.SuspendExecution;
 import com.zarbosoft.coroutinescore.SuspendableRunnable;
 
-import java.util.ArrayDeque;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Prioritizes reads
+ * <p>
+ * Waiting writers are served by priority with aging, like CriticalSection.  Waiting readers are all released together,
+ * in priority order.
  */
 public class RWCriticalSection {
 	final ReentrantLock lock = new ReentrantLock();
 	final static int STATE_WRITING = -1;
 	final static int STATE_UNLOCKED = 0;
 	int state = STATE_UNLOCKED;
-	ArrayDeque<CriticalSection.Waiting> readQueue = new ArrayDeque<>();
-	final ArrayDeque<CriticalSection.Waiting> writeQueue = new ArrayDeque<>();
+	final WaitQueue readQueue;
+	final WaitQueue writeQueue;
+	private volatile ContentionProfiler profiler = null;
+
+	public RWCriticalSection() {
+		this(WaitQueue.DEFAULT_AGING_NANOS, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param aging A waiter with priority p is served as if it had started waiting p * aging earlier.
+	 * @param unit
+	 */
+	public RWCriticalSection(final long aging, final TimeUnit unit) {
+		this.readQueue = new WaitQueue(unit.toNanos(aging));
+		this.writeQueue = new WaitQueue(unit.toNanos(aging));
+	}
 
 	public <R> R read(final ExecutorService executor, SuspendableSupplier<R> method) throws SuspendExecution {
+		return read(executor, 0, method);
+	}
+
+	/**
+	 * @param executor
+	 * @param priority Higher is served sooner if this has to wait.  The default is 0.
+	 * @param method
+	 * @return Wrapped method's return.
+	 * @throws SuspendExecution
+	 */
+	public <R> R read(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		final ContentionProfiler profiler = this.profiler;
+		return enterRead(executor, priority, profiler == null ? method : profiler.wrap("read", method));
+	}
+
+	<R> R enterRead(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
 		lock.lock();
 		if (state == STATE_WRITING) {
 			Coroutine coroutine = Coroutine.getActiveCoroutine();
 			return Coroutine.yieldThen(() -> {
-				readQueue.add(new CriticalSection.Waiting(executor, coroutine, method));
+				readQueue.add(new CriticalSection.Waiting(executor, coroutine, method), priority);
 				lock.unlock();
 			});
 		}
@@ -45,11 +83,31 @@ public class RWCriticalSection {
 	}
 
 	public <R> R write(final ExecutorService executor, SuspendableSupplier<R> method) throws SuspendExecution {
+		return write(executor, 0, method);
+	}
+
+	/**
+	 * @param executor
+	 * @param priority Higher is served sooner if this has to wait.  The default is 0.
+	 * @param method
+	 * @return Wrapped method's return.
+	 * @throws SuspendExecution
+	 */
+	public <R> R write(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
+		final ContentionProfiler profiler = this.profiler;
+		return enterWrite(executor, priority, profiler == null ? method : profiler.wrap("write", method));
+	}
+
+	private <R> R enterWrite(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
 		lock.lock();
 		if (state != STATE_UNLOCKED) {
 			Coroutine coroutine = Coroutine.getActiveCoroutine();
 			return Coroutine.yieldThen(() -> {
-				writeQueue.add(new CriticalSection.Waiting(executor, coroutine, method));
+				writeQueue.add(new CriticalSection.Waiting(executor, coroutine, method), priority);
 				lock.unlock();
 			});
 		}
@@ -64,6 +122,13 @@ public class RWCriticalSection {
 	}
 
 	public boolean tryUniqueWrite(ExecutorService executor, SuspendableRunnable method) throws SuspendExecution {
+		final ContentionProfiler profiler = this.profiler;
+		return enterTryUniqueWrite(executor, profiler == null ? method : profiler.wrap("tryUniqueWrite", method));
+	}
+
+	private boolean enterTryUniqueWrite(
+			ExecutorService executor, SuspendableRunnable method
+	) throws SuspendExecution {
 		lock.lock();
 		if (state != STATE_UNLOCKED) {
 			if (state != STATE_WRITING && writeQueue.isEmpty()) {
@@ -72,7 +137,7 @@ public class RWCriticalSection {
 					writeQueue.add(new CriticalSection.Waiting(executor, coroutine, () -> {
 						method.run();
 						return null;
-					}));
+					}), 0);
 					lock.unlock();
 				});
 				return true;
@@ -92,6 +157,15 @@ public class RWCriticalSection {
 		}
 	}
 
+	/**
+	 * Start or stop recording where reads and writes come from and how long they wait and hold the section.
+	 *
+	 * @param profiler May be null to stop.
+	 */
+	public void setProfiler(final ContentionProfiler profiler) {
+		this.profiler = profiler;
+	}
+
 	void submit(CriticalSection.Waiting next) {
 		Cohelp.submit(next.executor, () -> {
 			try {
@@ -111,16 +185,14 @@ public class RWCriticalSection {
 	 * @throws SuspendExecution
 	 */
 	void iterate() throws SuspendExecution {
-		ArrayDeque<CriticalSection.Waiting> readers;
-		ArrayDeque<CriticalSection.Waiting> temp = new ArrayDeque<>();
+		final List<CriticalSection.Waiting> readers;
 
 		lock.lock();
 		// Tally new readers, reduce by completed reader
 		state = (state == STATE_WRITING ? 0 : state - 1) + readQueue.size();
 
 		// Drain the reader queue for dispatch later here
-		readers = readQueue;
-		readQueue = temp;
+		readers = readQueue.drain();
 
 		// If no readers, prep the next writer
 		CriticalSection.Waiting writer;
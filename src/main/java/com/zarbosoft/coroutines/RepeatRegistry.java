@@ -0,0 +1,206 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.coroutinescore.SuspendableRunnable;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.zarbosoft.coroutines.Cohelp.fatal;
+
+/**
+ * Like Cohelp.repeat, but for large numbers of repeating methods.  Methods with the same interval share a single
+ * scheduled task.  Each interval is divided into phases and methods are spread evenly across them, so at most a
+ * fraction of the methods run on any one tick.  The shared task only does the timing; each method's run is submitted
+ * to the executor separately, so methods in one phase run in parallel and a slow method doesn't delay the others.
+ * <p>
+ * Each method gets a single coroutine that is reused for every run.  As with Cohelp.repeat a method is never run
+ * again while a previous run is still suspended; the skipped run is counted instead.  If an error propagates out of a
+ * method it is logged and the executor is shut down.
+ */
+public class RepeatRegistry {
+	private final ScheduledExecutorService executor;
+	private final int phases;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<Long, Group> groups = new HashMap<>();
+	private final AtomicLong skipped = new AtomicLong(0);
+
+	/**
+	 * @param executor Methods are run in this executor.
+	 * @param phases   Number of phases to divide each interval into.
+	 */
+	public RepeatRegistry(final ScheduledExecutorService executor, final int phases) {
+		if (phases < 1)
+			throw new IllegalArgumentException("phases must be at least 1");
+		this.executor = executor;
+		this.phases = phases;
+	}
+
+	public RepeatRegistry(final ScheduledExecutorService executor) {
+		this(executor, 16);
+	}
+
+	/**
+	 * Run an asynchronous method at a fixed interval.  The first run is within 1 interval of the call to repeat.
+	 *
+	 * @param time     Interval, multiple of unit.
+	 * @param unit
+	 * @param runnable The method to run periodically.
+	 * @return A handle to stop the repetition.
+	 */
+	public Handle repeat(final int time, final ChronoUnit unit, final SuspendableRunnable runnable) {
+		final long period = Duration.of(time, unit).toNanos();
+		if (period <= 0)
+			throw new IllegalArgumentException("Interval must be positive");
+		final Handle handle = new Handle(runnable);
+		lock.lock();
+		try {
+			Group group = groups.get(period);
+			if (group == null) {
+				group = new Group(period);
+				groups.put(period, group);
+			}
+			group.add(handle);
+		} finally {
+			lock.unlock();
+		}
+		return handle;
+	}
+
+	/**
+	 * @return Runs skipped across all methods because the previous run was still in progress.
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	private void cancel(final Handle handle) {
+		lock.lock();
+		try {
+			if (handle.cancelled)
+				return;
+			handle.cancelled = true;
+			final Group group = handle.group;
+			group.phases[handle.phase].remove(handle);
+			group.count -= 1;
+			if (group.count == 0) {
+				group.future.cancel(false);
+				groups.remove(group.period);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private class Group implements Runnable {
+		final long period;
+		final CopyOnWriteArrayList<Handle>[] phases;
+		final ScheduledFuture<?> future;
+		int count = 0;
+		long tick = 0;
+
+		Group(final long period) {
+			this.period = period;
+			final int phaseCount = (int) Math.min(RepeatRegistry.this.phases, period);
+			this.phases = new CopyOnWriteArrayList[phaseCount];
+			for (int i = 0; i < phaseCount; ++i)
+				this.phases[i] = new CopyOnWriteArrayList<>();
+			final long tickPeriod = period / phaseCount;
+			this.future = executor.scheduleAtFixedRate(this, tickPeriod, tickPeriod, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Must hold lock.
+		 *
+		 * @param handle
+		 */
+		void add(final Handle handle) {
+			int least = 0;
+			for (int i = 1; i < phases.length; ++i) {
+				if (phases[i].size() < phases[least].size())
+					least = i;
+			}
+			handle.group = this;
+			handle.phase = least;
+			phases[least].add(handle);
+			count += 1;
+		}
+
+		@Override
+		public void run() {
+			tick += 1;
+			for (final Handle handle : phases[(int) (tick % phases.length)]) {
+				try {
+					handle.tick();
+				} catch (final Throwable e) {
+					fatal(executor, e);
+				}
+			}
+		}
+	}
+
+	public class Handle {
+		private final AtomicBoolean running = new AtomicBoolean(false);
+		private final AtomicLong skipped = new AtomicLong(0);
+		private final Coroutine coroutine;
+		private volatile boolean cancelled = false;
+		private Group group;
+		private int phase;
+
+		private Handle(final SuspendableRunnable runnable) {
+			coroutine = new Coroutine(new SuspendableRunnable() {
+				@Override
+				public void run() throws SuspendExecution {
+					while (true) {
+						try {
+							runnable.run();
+						} catch (final Throwable e) {
+							fatal(executor, e);
+						}
+						Coroutine.yieldThen(() -> running.set(false));
+					}
+				}
+			});
+		}
+
+		private void tick() {
+			if (cancelled)
+				return;
+			if (!running.compareAndSet(false, true)) {
+				skipped.incrementAndGet();
+				RepeatRegistry.this.skipped.incrementAndGet();
+				return;
+			}
+			executor.execute(() -> {
+				try {
+					coroutine.process();
+				} catch (final Throwable e) {
+					fatal(executor, e);
+				}
+			});
+		}
+
+		/**
+		 * Stop running the method.  A run in progress is allowed to complete.
+		 */
+		public void cancel() {
+			RepeatRegistry.this.cancel(this);
+		}
+
+		/**
+		 * @return Runs skipped because the previous run was still in progress.
+		 */
+		public long getSkipped() {
+			return skipped.get();
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Wait for whichever of several sources is ready first.  The coroutine suspends once, is resumed by the first source
+ * to become ready, and then runs that source's handler.  The other sources are unregistered: timers are cancelled,
+ * channel receives are withdrawn (no item is consumed), and future callbacks are detached from the coroutine.
+ * <p>
+ * If a source is already ready when await is called, the first such source (in the order added) wins without
+ * suspending.
+ *
+ * <pre>
+ * String result = new Select&lt;String&gt;(executor)
+ *     .future(rpc, v -&gt; "got " + v)
+ *     .timeout(executor, 5, SECONDS, () -&gt; "timed out")
+ *     .await();
+ * </pre>
+ *
+ * @param <R> Result type of the handlers.
+ */
+public class Select<R> {
+	private final ExecutorService executor;
+	private final List<Arm> arms = new ArrayList<>();
+	private final static Object NOT_READY = new Object();
+	private final AtomicBoolean won = new AtomicBoolean(false);
+	private Coroutine coroutine;
+	private Arm winner;
+	private Object winnerValue;
+
+	/**
+	 * @param executor Coroutine is resumed in this executor when a source becomes ready.
+	 */
+	public Select(final ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Wait for a future.  If the future fails the error is raised from await.
+	 *
+	 * @param future
+	 * @param handler Run with the future's result if it completes first.
+	 * @param <T>
+	 * @return this
+	 */
+	public <T> Select<R> future(final CompletableFuture<T> future, final SuspendableFunction<T, R> handler) {
+		arms.add(new FutureArm(future, (SuspendableFunction<Object, R>) handler));
+		return this;
+	}
+
+	/**
+	 * Wait for a time to pass.
+	 *
+	 * @param timer
+	 * @param time
+	 * @param unit
+	 * @param handler Run if the time passes first.
+	 * @return this
+	 */
+	public Select<R> timeout(
+			final ScheduledExecutorService timer,
+			final long time,
+			final TimeUnit unit,
+			final SuspendableSupplier<R> handler
+	) {
+		arms.add(new TimeoutArm(timer, time, unit, handler));
+		return this;
+	}
+
+	/**
+	 * Wait to receive from a channel.  If the channel was closed with an error the error is raised from await.
+	 *
+	 * @param channel
+	 * @param handler Run with the item received, or null if the channel is closed, if the channel is ready first.
+	 * @param <T>
+	 * @return this
+	 */
+	public <T> Select<R> receive(final CoChannel<T> channel, final SuspendableFunction<T, R> handler) {
+		arms.add(new ReceiveArm(channel, (SuspendableFunction<Object, R>) handler));
+		return this;
+	}
+
+	/**
+	 * Suspend until a source is ready and run its handler.  A Select can only be awaited once.
+	 *
+	 * @return Result of the winning source's handler.
+	 * @throws SuspendExecution
+	 */
+	public R await() throws SuspendExecution {
+		if (coroutine != null)
+			throw new IllegalStateException("Select has already been awaited");
+		if (arms.isEmpty())
+			throw new IllegalStateException("Nothing to select");
+		coroutine = Coroutine.getActiveCoroutine();
+		for (final Arm arm : arms) {
+			final Object value = arm.poll();
+			if (value != NOT_READY) {
+				won.set(true);
+				return arm.handle(value);
+			}
+		}
+		// A winning error is raised from here
+		Coroutine.yieldThen(() -> {
+			for (final Arm arm : arms) {
+				if (won.get())
+					break;
+				arm.register();
+				if (won.get())
+					arm.unregister();
+			}
+		});
+		return winner.handle(winnerValue);
+	}
+
+	/**
+	 * Called by an arm when its source is ready, from any thread.
+	 *
+	 * @return true if the arm won and should call complete.
+	 */
+	private boolean claim() {
+		return won.compareAndSet(false, true);
+	}
+
+	private void complete(final Arm winner, final Object value, final Throwable error) {
+		this.winner = winner;
+		this.winnerValue = value;
+		for (final Arm arm : arms) {
+			if (arm != winner)
+				arm.unregister();
+		}
+		Cohelp.resume(executor, coroutine, null, error);
+	}
+
+	private abstract class Arm {
+		/**
+		 * @return A value if the source is ready now, otherwise NOT_READY.
+		 */
+		abstract Object poll();
+
+		/**
+		 * Start waiting for the source.  When it's ready, call complete if claim succeeds.
+		 */
+		abstract void register();
+
+		/**
+		 * Stop waiting for the source.  Must be idempotent and safe to call on the winner or before register.
+		 */
+		abstract void unregister();
+
+		abstract R handle(Object value) throws SuspendExecution;
+	}
+
+	private class FutureArm extends Arm {
+		private final CompletableFuture<?> future;
+		private final SuspendableFunction<Object, R> handler;
+		private FutureCallback callback;
+
+		FutureArm(final CompletableFuture<?> future, final SuspendableFunction<Object, R> handler) {
+			this.future = future;
+			this.handler = handler;
+		}
+
+		@Override
+		Object poll() {
+			if (!future.isDone())
+				return NOT_READY;
+			try {
+				return future.join();
+			} catch (final RuntimeException e) {
+				throw Cohelp.unwrap(e);
+			}
+		}
+
+		@Override
+		void register() {
+			callback = new FutureCallback(this);
+			future.whenComplete(callback);
+		}
+
+		@Override
+		void unregister() {
+			final FutureCallback callback = this.callback;
+			if (callback != null)
+				callback.arm = null;
+		}
+
+		@Override
+		R handle(final Object value) throws SuspendExecution {
+			return handler.apply(value);
+		}
+
+		void fire(final Object value, final Throwable error) {
+			if (claim())
+				complete(this, value, error);
+		}
+	}
+
+	/**
+	 * Callbacks can't be removed from a future, so unregistering drops the callback's reference to the select instead.
+	 * The abandoned callback then retains nothing until the future completes.
+	 */
+	private static class FutureCallback implements BiConsumer<Object, Throwable> {
+		private volatile Select<?>.FutureArm arm;
+
+		FutureCallback(final Select<?>.FutureArm arm) {
+			this.arm = arm;
+		}
+
+		@Override
+		public void accept(final Object value, final Throwable error) {
+			final Select<?>.FutureArm arm = this.arm;
+			if (arm != null)
+				arm.fire(value, error);
+		}
+	}
+
+	private class TimeoutArm extends Arm {
+		private final ScheduledExecutorService timer;
+		private final long time;
+		private final TimeUnit unit;
+		private final SuspendableSupplier<R> handler;
+		private volatile ScheduledFuture<?> scheduled;
+
+		TimeoutArm(
+				final ScheduledExecutorService timer,
+				final long time,
+				final TimeUnit unit,
+				final SuspendableSupplier<R> handler
+		) {
+			this.timer = timer;
+			this.time = time;
+			this.unit = unit;
+			this.handler = handler;
+		}
+
+		@Override
+		Object poll() {
+			return time <= 0 ? null : NOT_READY;
+		}
+
+		@Override
+		void register() {
+			scheduled = timer.schedule(() -> {
+				if (claim())
+					complete(this, null, null);
+			}, time, unit);
+		}
+
+		@Override
+		void unregister() {
+			final ScheduledFuture<?> scheduled = this.scheduled;
+			if (scheduled != null)
+				scheduled.cancel(false);
+		}
+
+		@Override
+		R handle(final Object value) throws SuspendExecution {
+			return handler.get();
+		}
+	}
+
+	private class ReceiveArm extends Arm {
+		private final CoChannel<?> channel;
+		private final SuspendableFunction<Object, R> handler;
+		private final CoChannel.Receiver receiver = new CoChannel.Receiver() {
+			@Override
+			boolean claim() {
+				return Select.this.claim();
+			}
+
+			@Override
+			void deliver(final Object value, final Throwable error) {
+				complete(ReceiveArm.this, value, error);
+			}
+		};
+
+		ReceiveArm(final CoChannel<?> channel, final SuspendableFunction<Object, R> handler) {
+			this.channel = channel;
+			this.handler = handler;
+		}
+
+		@Override
+		Object poll() {
+			final Object value = channel.poll();
+			return CoChannel.isWait(value) ? NOT_READY : value;
+		}
+
+		@Override
+		void register() {
+			channel.receive(receiver);
+		}
+
+		@Override
+		void unregister() {
+			channel.cancel(receiver);
+		}
+
+		@Override
+		R handle(final Object value) throws SuspendExecution {
+			return handler.apply(value);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import static com.zarbosoft.coroutines.Cohelp.logger;
+
+/**
+ * A thread running a Selector that resumes coroutines when their channels become ready.  A single loop can serve any
+ * number of channels; see CoSocketChannel and CoServerSocketChannel.
+ * <p>
+ * The loop thread only selects and dispatches - coroutines are resumed in the executor they passed when waiting.
+ * <p>
+ * Once the loop is closed waiting raises ClosedSelectorException, and closing a channel closes it directly.
+ */
+public class SelectorLoop implements Closeable {
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed = false;
+	/**
+	 * Set after the selector is closed; from then on tasks are run by the thread that queues them.
+	 */
+	volatile boolean stopped = false;
+
+	public SelectorLoop() throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this::loop, "selector-loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Suspend until the channel is ready for the operation.
+	 *
+	 * @param channel  A non-blocking channel.
+	 * @param op       One of the SelectionKey.OP_ constants.
+	 * @param executor Coroutine is resumed in this executor when the channel is ready.
+	 * @throws SuspendExecution
+	 * @throws ClosedSelectorException If the loop is closed, including while waiting to register.
+	 */
+	void await(final SelectableChannel channel, final int op, final ExecutorService executor) throws SuspendExecution {
+		if (closed)
+			throw new ClosedSelectorException();
+		final Coroutine self = Coroutine.getActiveCoroutine();
+		Coroutine.yieldThen(() -> {
+			submit(() -> {
+				SelectionKey key = channel.keyFor(selector);
+				if (key == null || !key.isValid()) {
+					try {
+						key = channel.register(selector, 0, new Registration());
+					} catch (final ClosedChannelException e) {
+						// Resume so the retried operation raises the error
+						resume(executor, self);
+						return;
+					} catch (final ClosedSelectorException e) {
+						// The loop stopped before the registration was handled
+						executor.execute(() -> {
+							try {
+								self.processThrow(e);
+							} catch (final Throwable e2) {
+								Cohelp.fatal(executor, e2);
+							}
+						});
+						return;
+					}
+				}
+				final Registration registration = (Registration) key.attachment();
+				if ((op & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0) {
+					registration.reader = self;
+					registration.readerExecutor = executor;
+				} else {
+					registration.writer = self;
+					registration.writerExecutor = executor;
+				}
+				key.interestOps(key.interestOps() | op);
+			});
+		});
+	}
+
+	/**
+	 * Close the channel, resuming any coroutines waiting on it.  Their retried operations will raise
+	 * ClosedChannelException.  If the loop has stopped the channel is closed immediately.
+	 *
+	 * @param channel
+	 */
+	void close(final SelectableChannel channel) {
+		submit(() -> {
+			final SelectionKey key = channel.keyFor(selector);
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				logger.warn("Error closing channel", e);
+			}
+			if (key != null)
+				wakeAll((Registration) key.attachment());
+		});
+	}
+
+	private void submit(final Runnable task) {
+		pending.add(task);
+		if (stopped)
+			// The loop may have drained pending for the last time before the task was added
+			drain();
+		else
+			selector.wakeup();
+	}
+
+	private void drain() {
+		Runnable task;
+		while ((task = pending.poll()) != null)
+			task.run();
+	}
+
+	/**
+	 * Stop the loop thread and close the selector.  Channels are not closed.  Waiting coroutines are resumed.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	private void loop() {
+		try {
+			while (!closed) {
+				drain();
+				selector.select();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final Registration registration = (Registration) key.attachment();
+					if (!key.isValid()) {
+						wakeAll(registration);
+						continue;
+					}
+					final int ready = key.readyOps();
+					key.interestOps(key.interestOps() & ~ready);
+					if ((ready & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0 && registration.reader != null) {
+						final Coroutine reader = registration.reader;
+						registration.reader = null;
+						resume(registration.readerExecutor, reader);
+					}
+					if ((ready & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT)) != 0 &&
+							registration.writer != null) {
+						final Coroutine writer = registration.writer;
+						registration.writer = null;
+						resume(registration.writerExecutor, writer);
+					}
+				}
+			}
+		} catch (final Throwable e) {
+			logger.error("Uncaught error in selector loop; stopping", e);
+		} finally {
+			closed = true;
+			for (final SelectionKey key : selector.keys())
+				wakeAll((Registration) key.attachment());
+			try {
+				selector.close();
+			} catch (final IOException e) {
+				logger.warn("Error closing selector", e);
+			}
+			stopped = true;
+			drain();
+		}
+	}
+
+	private static void wakeAll(final Registration registration) {
+		if (registration.reader != null) {
+			resume(registration.readerExecutor, registration.reader);
+			registration.reader = null;
+		}
+		if (registration.writer != null) {
+			resume(registration.writerExecutor, registration.writer);
+			registration.writer = null;
+		}
+	}
+
+	private static void resume(final ExecutorService executor, final Coroutine coroutine) {
+		executor.execute(() -> {
+			try {
+				coroutine.process(null);
+			} catch (final Throwable e) {
+				Cohelp.fatal(executor, e);
+			}
+		});
+	}
+
+	/**
+	 * Only accessed from the loop thread.
+	 */
+	private static class Registration {
+		Coroutine reader;
+		ExecutorService readerExecutor;
+		Coroutine writer;
+		ExecutorService writerExecutor;
+	}
+}
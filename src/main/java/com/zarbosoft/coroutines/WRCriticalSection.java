@@ -3,17 +3,32 @@ package com.zarbosoft.coroutines;
 import com.zarbosoft.coroutinescore.SuspendExecution;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Prioritizes a single write, releasing batches of queued reads in between
  */
 public class WRCriticalSection extends RWCriticalSection {
-	public <R> R read(final ExecutorService executor, SuspendableSupplier<R> method) throws SuspendExecution {
+	public WRCriticalSection() {
+	}
+
+	/**
+	 * @param aging A waiter with priority p is served as if it had started waiting p * aging earlier.
+	 * @param unit
+	 */
+	public WRCriticalSection(final long aging, final TimeUnit unit) {
+		super(aging, unit);
+	}
+
+	@Override
+	<R> R enterRead(
+			final ExecutorService executor, final int priority, SuspendableSupplier<R> method
+	) throws SuspendExecution {
 		lock.lock();
 		if (!writeQueue.isEmpty()) {
 			Coroutine coroutine = Coroutine.getActiveCoroutine();
 			return Coroutine.yieldThen(() -> {
-				readQueue.add(new CriticalSection.Waiting(executor, coroutine, method));
+				readQueue.add(new CriticalSection.Waiting(executor, coroutine, method), priority);
 				lock.unlock();
 			});
 		}
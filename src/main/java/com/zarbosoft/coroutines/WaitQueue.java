@@ -0,0 +1,103 @@
+package com.zarbosoft.coroutines;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coroutines waiting for a critical section, served by priority with aging.  A waiter with priority p is ordered as if
+ * it had arrived p * aging earlier, so higher priorities go first but a waiter can only be overtaken by later arrivals
+ * for a bounded time.  Waiters with equal priority are served in arrival order.
+ * <p>
+ * Not thread safe; only use while holding the section's lock.
+ */
+class WaitQueue {
+	/**
+	 * Head start per priority level if not specified.
+	 */
+	final static long DEFAULT_AGING_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final long agingNanos;
+	private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+	private long sequence = 0;
+
+	WaitQueue(final long agingNanos) {
+		if (agingNanos < 0)
+			throw new IllegalArgumentException("aging must not be negative");
+		this.agingNanos = agingNanos;
+	}
+
+	void add(final CriticalSection.Waiting waiting, final int priority) {
+		final long now = System.nanoTime();
+		waiting.since = now;
+		queue.add(new Entry(waiting, now - boost(priority), sequence++));
+	}
+
+	/**
+	 * Clamped so that differences between keys can't overflow.
+	 */
+	private long boost(final int priority) {
+		final long limit = Long.MAX_VALUE / 4;
+		if (agingNanos != 0 && Math.abs((long) priority) > limit / agingNanos)
+			return priority < 0 ? -limit : limit;
+		return priority * agingNanos;
+	}
+
+	CriticalSection.Waiting poll() {
+		final Entry entry = queue.poll();
+		return entry == null ? null : entry.waiting;
+	}
+
+	boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Remove all waiters.
+	 *
+	 * @return The waiters in the order they would have been served.
+	 */
+	List<CriticalSection.Waiting> drain() {
+		return drain(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Remove up to max waiters.
+	 *
+	 * @param max
+	 * @return The waiters in the order they would have been served.
+	 */
+	List<CriticalSection.Waiting> drain(final int max) {
+		final List<CriticalSection.Waiting> out = new ArrayList<>(Math.min(max, queue.size()));
+		Entry entry;
+		while (out.size() < max && (entry = queue.poll()) != null)
+			out.add(entry.waiting);
+		return out;
+	}
+
+	private static class Entry implements Comparable<Entry> {
+		final CriticalSection.Waiting waiting;
+		final long key;
+		final long sequence;
+
+		Entry(final CriticalSection.Waiting waiting, final long key, final long sequence) {
+			this.waiting = waiting;
+			this.key = key;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(final Entry o) {
+			// Subtract to stay correct if nanoTime wraps
+			final long difference = key - o.key;
+			if (difference != 0)
+				return difference < 0 ? -1 : 1;
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.zarbosoft.coroutines;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Suspended coroutines to be released together.  Resuming groups the coroutines by executor and submits one task per
+ * CHUNK coroutines rather than one per coroutine.
+ * <p>
+ * Not thread safe; guard with the owner's lock, then resume after unlocking.
+ */
+class WaiterBatch {
+	/**
+	 * Coroutines resumed per task, so large batches can still spread over a pool's threads.
+	 */
+	final static int CHUNK = 64;
+
+	private final Map<ExecutorService, List<Coroutine>> waiters = new IdentityHashMap<>();
+	private int size = 0;
+
+	void add(final ExecutorService executor, final Coroutine coroutine) {
+		waiters.computeIfAbsent(executor, k -> new ArrayList<>()).add(coroutine);
+		size += 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param value Returned from each coroutine's suspending call.
+	 */
+	void resume(final Object value) {
+		for (final Map.Entry<ExecutorService, List<Coroutine>> entry : waiters.entrySet()) {
+			final List<Coroutine> coroutines = entry.getValue();
+			for (int start = 0; start < coroutines.size(); start += CHUNK) {
+				final List<Coroutine> chunk = coroutines.subList(start, Math.min(coroutines.size(), start + CHUNK));
+				final ExecutorService executor = entry.getKey();
+				executor.execute(() -> {
+					for (final Coroutine coroutine : chunk) {
+						try {
+							coroutine.process(value);
+						} catch (final Throwable e) {
+							Cohelp.fatal(executor, e);
+						}
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.zarbosoft.coroutines;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open-loop load generator for qualifying changes end to end.  Operations are started at a fixed overall rate, each in
+ * its own coroutine, picked at random according to a mix of sleep, unblock, CriticalSection.call and
+ * RWCriticalSection.read/write.
+ * <p>
+ * Latency is measured from when each operation was scheduled to start rather than when it actually started, so
+ * stalls in the harness or executor count against every operation they delay (coordinated omission correction).
+ * <p>
+ * Results are printed as plain text, one line per operation and percentile, so runs against two versions can be
+ * compared with diff.  Run from the test classpath:
+ *
+ * <pre>
+ * java com.zarbosoft.coroutines.LoadHarness rate=20000 duration=30 warmup=5 threads=4 \
+ *     mix=sleep:1,unblock:1,call:2,read:4,write:1 work=20000
+ * </pre>
+ */
+public class LoadHarness {
+	private final static double[] PERCENTILES = new double[] {50, 90, 99, 99.9, 99.99, 100};
+
+	private final int rate;
+	private final int duration;
+	private final int warmup;
+	private final int threads;
+	private final long workNanos;
+	private final long seed;
+	private final String mixSpec;
+	private final List<String> mix = new ArrayList<>();
+	private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+	private final Histogram all = new Histogram();
+	private final CriticalSection critical = new CriticalSection();
+	private final RWCriticalSection rw = new RWCriticalSection();
+	private final AtomicLong outstanding = new AtomicLong();
+
+	public LoadHarness(final Map<String, String> config) {
+		this.rate = Integer.parseInt(config.getOrDefault("rate", "10000"));
+		this.duration = Integer.parseInt(config.getOrDefault("duration", "10"));
+		this.warmup = Integer.parseInt(config.getOrDefault("warmup", "2"));
+		this.threads = Integer.parseInt(config.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors()));
+		this.workNanos = Long.parseLong(config.getOrDefault("work", "10000"));
+		this.seed = Long.parseLong(config.getOrDefault("seed", "0"));
+		this.mixSpec = config.getOrDefault("mix", "sleep:1,unblock:1,call:2,read:4,write:1");
+		for (final String part : mixSpec.split(",")) {
+			final String[] pair = part.split(":");
+			final String op = pair[0];
+			switch (op) {
+				case "sleep":
+				case "unblock":
+				case "call":
+				case "read":
+				case "write":
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown operation " + op);
+			}
+			for (int i = 0; i < Integer.parseInt(pair[1]); ++i)
+				mix.add(op);
+			histograms.put(op, new Histogram());
+		}
+		if (mix.isEmpty())
+			throw new IllegalArgumentException("Empty mix");
+	}
+
+	public static void main(final String[] args) throws InterruptedException {
+		final Map<String, String> config = new LinkedHashMap<>();
+		for (final String arg : args) {
+			final int split = arg.indexOf('=');
+			if (split < 0)
+				throw new IllegalArgumentException("Arguments are key=value, got " + arg);
+			config.put(arg.substring(0, split), arg.substring(split + 1));
+		}
+		System.out.print(new LoadHarness(config).run());
+	}
+
+	/**
+	 * Run the warmup, reset, then run the measured period.
+	 *
+	 * @return The report.
+	 * @throws InterruptedException
+	 */
+	public String run() throws InterruptedException {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads);
+		try {
+			final Random random = new Random(seed);
+			generate(executor, random, warmup);
+			histograms.values().forEach(Histogram::reset);
+			all.reset();
+			generate(executor, random, duration);
+		} finally {
+			executor.shutdown();
+		}
+		return report();
+	}
+
+	/**
+	 * Start operations at the configured rate for the duration, then wait for them to finish.
+	 */
+	private void generate(
+			final ScheduledExecutorService executor, final Random random, final int seconds
+	) throws InterruptedException {
+		final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long next = start;
+		while (next < end) {
+			final long now = System.nanoTime();
+			if (now < next) {
+				TimeUnit.NANOSECONDS.sleep(Math.min(next - now, TimeUnit.MILLISECONDS.toNanos(1)));
+				continue;
+			}
+			// Catch up on everything that should have started by now, keeping the intended start times
+			while (next <= now && next < end) {
+				launch(executor, mix.get(random.nextInt(mix.size())), next);
+				next += interval;
+			}
+		}
+		while (outstanding.get() > 0)
+			Thread.sleep(10);
+	}
+
+	private void launch(final ScheduledExecutorService executor, final String op, final long intended) {
+		outstanding.incrementAndGet();
+		Cohelp.submit(executor, () -> {
+			try {
+				switch (op) {
+					case "sleep":
+						Cohelp.sleep(executor, 1, TimeUnit.MILLISECONDS);
+						break;
+					case "unblock":
+						Cohelp.unblock(executor, () -> work());
+						break;
+					case "call":
+						critical.call(executor, () -> work());
+						break;
+					case "read":
+						rw.read(executor, () -> work());
+						break;
+					case "write":
+						rw.write(executor, () -> work());
+						break;
+					default:
+						throw new AssertionError();
+				}
+				final long latency = System.nanoTime() - intended;
+				histograms.get(op).record(latency);
+				all.record(latency);
+			} finally {
+				outstanding.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Busy work standing in for the body of an operation.
+	 */
+	private Object work() {
+		final long until = System.nanoTime() + workNanos;
+		while (System.nanoTime() < until) {
+		}
+		return null;
+	}
+
+	private String report() {
+		final StringBuilder out = new StringBuilder();
+		out.append(String.format(
+				"# rate %d/s duration %ds warmup %ds threads %d work %dns mix %s\n",
+				rate,
+				duration,
+				warmup,
+				threads,
+				workNanos,
+				mixSpec
+		));
+		out.append("# op percentile latency_us\n");
+		for (final Map.Entry<String, Histogram> entry : histograms.entrySet())
+			report(out, entry.getKey(), entry.getValue());
+		report(out, "all", all);
+		return out.toString();
+	}
+
+	private static void report(final StringBuilder out, final String op, final Histogram histogram) {
+		out.append(String.format("%s count %d\n", op, histogram.count()));
+		for (final double percentile : PERCENTILES) {
+			out.append(String.format(
+					"%s p%s %.1f\n",
+					op,
+					percentile == (long) percentile ? "" + (long) percentile : "" + percentile,
+					histogram.percentile(percentile) / 1000.0
+			));
+		}
+	}
+}
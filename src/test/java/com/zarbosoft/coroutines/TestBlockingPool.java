@@ -0,0 +1,131 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestBlockingPool {
+	private final ManualExecutor executor;
+
+	public TestBlockingPool() {
+		this.executor = new ManualExecutor();
+	}
+
+	private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue("timed out", System.nanoTime() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testUnblock() throws InterruptedException {
+		final BlockingPool pool = new BlockingPool(0, 2, 10, 10, 1000, TimeUnit.MILLISECONDS);
+		assertThat(Cohelp.block(() -> pool.unblock(executor, "db", () -> 4)), equalTo(4));
+		assertThat(pool.report(), containsString("db: submitted 1 rejected 0"));
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testUnblockError() throws InterruptedException {
+		final BlockingPool pool = new BlockingPool(0, 2, 10, 10, 1000, TimeUnit.MILLISECONDS);
+		boolean raised = false;
+		try {
+			Cohelp.block(() -> pool.unblock(executor, () -> {
+				throw new IllegalStateException();
+			}));
+		} catch (final IllegalStateException e) {
+			raised = true;
+		}
+		assertTrue(raised);
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testUnblockFatal() throws InterruptedException {
+		final BlockingPool pool = new BlockingPool(0, 2, 10, 10, 1000, TimeUnit.MILLISECONDS);
+		final FatalExecutor fatalExecutor = new FatalExecutor();
+		final Coroutine coroutine = new Coroutine(() -> pool.unblock(fatalExecutor, "db", () -> {
+			throw new AssertionError();
+		}));
+		coroutine.process();
+		// An Error from the work reaches the resume executor instead of dying in the pool thread
+		waitFor(() -> fatalExecutor.fatal);
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testGrowAndShrink() throws InterruptedException {
+		final BlockingPool pool = new BlockingPool(1, 3, 10, 20, 50, TimeUnit.MILLISECONDS);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(3);
+		for (int i = 0; i < 3; ++i) {
+			pool.execute("slow", () -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+				}
+			});
+		}
+		// Queued work waits past the threshold, so threads are added until everything runs
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertThat(pool.getThreads(), equalTo(3));
+		assertThat(pool.getGrown(), equalTo(2L));
+		release.countDown();
+		waitFor(() -> pool.getThreads() == 1);
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBoundedQueue() throws InterruptedException {
+		final BlockingPool pool = new BlockingPool(1, 1, 1, 10, 1000, TimeUnit.MILLISECONDS);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		pool.execute("slow", () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		pool.execute("slow", () -> {
+		});
+		boolean rejected = false;
+		try {
+			pool.execute("slow", () -> {
+			});
+		} catch (final RejectedExecutionException e) {
+			rejected = true;
+		}
+		assertTrue(rejected);
+		assertThat(pool.report(), containsString("slow: submitted 2 rejected 1"));
+		release.countDown();
+		waitFor(() -> pool.getQueued() == 0);
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	private static class FatalExecutor extends ManualExecutor {
+		volatile boolean fatal = false;
+
+		@Override
+		public void shutdown() {
+			fatal = true;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoActor {
+	private final ManualExecutor executor;
+
+	public TestCoActor() {
+		this.executor = new ManualExecutor();
+	}
+
+	@Test
+	public void testTellInOrder() {
+		final CoActor<List<Integer>> actor = new CoActor<>(executor, new ArrayList<>());
+		for (int i = 0; i < 3; ++i) {
+			final int id = i;
+			actor.tell(state -> state.add(id));
+		}
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(actor.ask(executor, state -> new ArrayList<>(state)), equalTo(Arrays.asList(0, 1, 2)));
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testAskError() {
+		final CoActor<List<Integer>> actor = new CoActor<>(executor, new ArrayList<>());
+		final boolean[] caught = new boolean[] {false};
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				actor.ask(executor, state -> state.get(4));
+			} catch (final IndexOutOfBoundsException e) {
+				caught[0] = true;
+			}
+			assertThat(actor.ask(executor, state -> state.size()), equalTo(0));
+		});
+		coroutine.process();
+		assertTrue(caught[0]);
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testTellErrorKeepsRunning() {
+		final CoActor<List<Integer>> actor = new CoActor<>(executor, new ArrayList<>());
+		actor.tell(state -> {
+			throw new IllegalStateException();
+		});
+		actor.tell(state -> state.add(1));
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(actor.ask(executor, state -> state.size()), equalTo(1));
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testAskAssertionError() {
+		final CoActor<List<Integer>> actor = new CoActor<>(executor, new ArrayList<>());
+		final boolean[] caught = new boolean[] {false};
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				actor.ask(executor, state -> {
+					throw new AssertionError();
+				});
+			} catch (final AssertionError e) {
+				caught[0] = true;
+			}
+			assertThat(actor.ask(executor, state -> state.size()), equalTo(0));
+		});
+		coroutine.process();
+		assertTrue(caught[0]);
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testTellAssertionErrorKeepsRunning() {
+		final CoActor<List<Integer>> actor = new CoActor<>(executor, new ArrayList<>());
+		actor.tell(state -> {
+			throw new AssertionError();
+		});
+		actor.tell(state -> state.add(1));
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(actor.ask(executor, state -> state.size()), equalTo(1));
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testBatches() {
+		final QueueExecutor queue = new QueueExecutor();
+		final CoActor<List<Integer>> actor = new CoActor<>(queue, new ArrayList<>(), 2);
+		final List<Integer> seen = new ArrayList<>();
+		for (int i = 0; i < 5; ++i) {
+			final int id = i;
+			actor.tell(state -> seen.add(id));
+		}
+		// One scheduling for all the messages sent while idle
+		assertThat(queue.tasks.size(), equalTo(1));
+		queue.runOne();
+		assertThat(seen, equalTo(Arrays.asList(0, 1)));
+		assertThat(queue.tasks.size(), equalTo(1));
+		queue.runOne();
+		queue.runOne();
+		assertThat(seen, equalTo(Arrays.asList(0, 1, 2, 3, 4)));
+		// Parked
+		assertTrue(queue.tasks.isEmpty());
+		actor.tell(state -> seen.add(5));
+		assertFalse(queue.tasks.isEmpty());
+		queue.runOne();
+		assertThat(seen, equalTo(Arrays.asList(0, 1, 2, 3, 4, 5)));
+	}
+
+	private static class QueueExecutor extends AbstractExecutorService {
+		final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+		void runOne() {
+			tasks.poll().run();
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			tasks.add(command);
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return new ArrayList<>();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoCache {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+	private final List<String> loads = new ArrayList<>();
+	private long now = 0;
+
+	public TestCoCache() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+	}
+
+	private CoCache<String, String> cache(
+			final int maxSize, final long expire, final long refresh, final SuspendableFunction<String, String> loader
+	) {
+		return new CoCache<>(executor, maxSize, expire, refresh, () -> now, loader);
+	}
+
+	private String get(final CoCache<String, String> cache, final String key) {
+		final Common.Mutable<String> out = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = cache.get(key);
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		return out.value;
+	}
+
+	@Test
+	public void testSingleFlight() {
+		final CoCache<String, String> cache = cache(10, 0, 0, key -> {
+			loads.add(key);
+			gate.stop(1);
+			return key + "!";
+		});
+		final List<String> out = new ArrayList<>();
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			out.add(cache.get("a"));
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			out.add(cache.get("a"));
+		});
+		coroutine1.process();
+		coroutine2.process();
+		assertFalse(coroutine2.isFinished());
+		gate.start(1);
+		assertTrue(coroutine1.isFinished());
+		assertTrue(coroutine2.isFinished());
+		assertThat(out, equalTo(Arrays.asList("a!", "a!")));
+		assertThat(loads, equalTo(Arrays.asList("a")));
+		assertThat(get(cache, "a"), equalTo("a!"));
+		assertThat(cache.getMisses(), equalTo(2L));
+		assertThat(cache.getHits(), equalTo(1L));
+	}
+
+	@Test
+	public void testFailureNotCached() {
+		final CoCache<String, String> cache = cache(10, 0, 0, key -> {
+			loads.add(key);
+			if (loads.size() == 1)
+				throw new TestCohelp.TestError();
+			return key + "!";
+		});
+		try {
+			get(cache, "a");
+			throw new AssertionError();
+		} catch (final TestCohelp.TestError e) {
+		}
+		assertThat(get(cache, "a"), equalTo("a!"));
+		assertThat(cache.getLoadFailures(), equalTo(1L));
+	}
+
+	@Test
+	public void testSizeEviction() {
+		final CoCache<String, String> cache = cache(2, 0, 0, key -> {
+			loads.add(key);
+			return key;
+		});
+		get(cache, "a");
+		get(cache, "b");
+		get(cache, "a");
+		get(cache, "c");
+		get(cache, "a");
+		get(cache, "b");
+		assertThat(loads, equalTo(Arrays.asList("a", "b", "c", "b")));
+		assertThat(cache.getEvictions(), equalTo(2L));
+		assertThat(cache.size(), equalTo(2));
+	}
+
+	@Test
+	public void testLoadingNotEvicted() {
+		final CoCache<String, String> cache = cache(1, 0, 0, key -> {
+			loads.add(key);
+			gate.stop(key.equals("a") ? 1 : 2);
+			return key + "!";
+		});
+		final List<String> out = new ArrayList<>();
+		final List<Coroutine> coroutines = new ArrayList<>();
+		for (final String key : Arrays.asList("a", "b", "a", "b")) {
+			final Coroutine coroutine = new Coroutine(() -> {
+				out.add(cache.get(key));
+			});
+			coroutines.add(coroutine);
+			coroutine.process();
+		}
+		assertThat(cache.size(), equalTo(2));
+		gate.start(1);
+		gate.start(2);
+		for (final Coroutine coroutine : coroutines)
+			assertTrue(coroutine.isFinished());
+		assertThat(out, equalTo(Arrays.asList("a!", "a!", "b!", "b!")));
+		assertThat(loads, equalTo(Arrays.asList("a", "b")));
+		assertThat(cache.getEvictions(), equalTo(1L));
+		assertThat(cache.size(), equalTo(1));
+	}
+
+	@Test
+	public void testRefreshAheadAndExpiry() {
+		final CoCache<String, String> cache = cache(10, 100, 50, key -> {
+			loads.add(key);
+			return key + loads.size();
+		});
+		assertThat(get(cache, "a"), equalTo("a1"));
+		now = 60;
+		assertThat(get(cache, "a"), equalTo("a1"));
+		assertThat(cache.getRefreshes(), equalTo(1L));
+		assertThat(get(cache, "a"), equalTo("a2"));
+		now = 200;
+		assertThat(get(cache, "a"), equalTo("a3"));
+		assertThat(cache.getMisses(), equalTo(2L));
+	}
+}
@@ -0,0 +1,107 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoCondition {
+	private final ManualExecutor executor;
+	private final CriticalSection critical;
+	private final CoCondition notEmpty;
+	private final ArrayDeque<Integer> items = new ArrayDeque<>();
+
+	public TestCoCondition() {
+		this.executor = new ManualExecutor();
+		this.critical = new CriticalSection();
+		this.notEmpty = critical.newCondition();
+	}
+
+	private Integer take() throws SuspendExecution {
+		return critical.call(executor, () -> {
+			while (items.isEmpty())
+				notEmpty.await(executor);
+			return items.poll();
+		});
+	}
+
+	private void put(final boolean all, final Integer... values) {
+		new Coroutine(() -> {
+			critical.call(executor, () -> {
+				items.addAll(Arrays.asList(values));
+				if (all)
+					notEmpty.signalAll();
+				else
+					notEmpty.signal();
+				return null;
+			});
+		}).process();
+	}
+
+	@Test
+	public void testSignal() {
+		final Common.Mutable<Integer> out = new Common.Mutable<>();
+		final Coroutine consumer = new Coroutine(() -> {
+			out.value = take();
+		});
+		consumer.process();
+		assertFalse(consumer.isFinished());
+		put(false, 4);
+		assertTrue(consumer.isFinished());
+		assertThat(out.value, equalTo(4));
+	}
+
+	@Test
+	public void testSignalOne() {
+		final List<Integer> out = new ArrayList<>();
+		final Coroutine consumer1 = new Coroutine(() -> {
+			out.add(take());
+		});
+		final Coroutine consumer2 = new Coroutine(() -> {
+			out.add(take());
+		});
+		consumer1.process();
+		consumer2.process();
+		put(false, 4, 5);
+		assertTrue(consumer1.isFinished());
+		assertFalse(consumer2.isFinished());
+		put(false);
+		assertTrue(consumer2.isFinished());
+		assertThat(out, equalTo(Arrays.asList(4, 5)));
+	}
+
+	@Test
+	public void testSignalAllRechecks() {
+		final List<Integer> out = new ArrayList<>();
+		final Coroutine consumer1 = new Coroutine(() -> {
+			out.add(take());
+		});
+		final Coroutine consumer2 = new Coroutine(() -> {
+			out.add(take());
+		});
+		consumer1.process();
+		consumer2.process();
+		put(true, 4);
+		assertTrue(consumer1.isFinished());
+		assertFalse(consumer2.isFinished());
+		put(true, 5);
+		assertTrue(consumer2.isFinished());
+		assertThat(out, equalTo(Arrays.asList(4, 5)));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAwaitOutsideSection() {
+		new Coroutine(() -> {
+			notEmpty.await(executor);
+		}).process();
+	}
+}
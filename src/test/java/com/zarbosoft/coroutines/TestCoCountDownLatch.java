@@ -0,0 +1,72 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoCountDownLatch {
+	private final ManualExecutor executor;
+
+	public TestCoCountDownLatch() {
+		this.executor = new ManualExecutor();
+	}
+
+	@Test
+	public void testRelease() {
+		final CoCountDownLatch latch = new CoCountDownLatch(2);
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			latch.await(executor);
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			latch.await(executor);
+		});
+		coroutine1.process();
+		coroutine2.process();
+		latch.countDown();
+		assertFalse(coroutine1.isFinished());
+		assertFalse(coroutine2.isFinished());
+		latch.countDown();
+		assertTrue(coroutine1.isFinished());
+		assertTrue(coroutine2.isFinished());
+	}
+
+	@Test
+	public void testAlreadyZero() {
+		final CoCountDownLatch latch = new CoCountDownLatch(1);
+		latch.countDown();
+		latch.countDown();
+		final Coroutine coroutine = new Coroutine(() -> {
+			latch.await(executor);
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testFailingWaiterDoesntStrandOthers() {
+		final FatalExecutor executor = new FatalExecutor();
+		final CoCountDownLatch latch = new CoCountDownLatch(1);
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			latch.await(executor);
+			throw new AssertionError();
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			latch.await(executor);
+		});
+		coroutine1.process();
+		coroutine2.process();
+		latch.countDown();
+		assertTrue(executor.fatal);
+		assertTrue(coroutine2.isFinished());
+	}
+
+	private static class FatalExecutor extends ManualExecutor {
+		boolean fatal = false;
+
+		@Override
+		public void shutdown() {
+			fatal = true;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoCyclicBarrier {
+	private final ManualExecutor executor;
+
+	public TestCoCyclicBarrier() {
+		this.executor = new ManualExecutor();
+	}
+
+	@Test
+	public void testCycles() {
+		final List<String> events = new ArrayList<>();
+		final CoCyclicBarrier barrier = new CoCyclicBarrier(2, () -> events.add("trip"));
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			for (int i = 0; i < 2; ++i) {
+				events.add("a" + barrier.await(executor));
+			}
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			for (int i = 0; i < 2; ++i) {
+				events.add("b" + barrier.await(executor));
+			}
+		});
+		coroutine1.process();
+		assertThat(barrier.getNumberWaiting(), equalTo(1));
+		coroutine2.process();
+		assertTrue(coroutine1.isFinished());
+		assertTrue(coroutine2.isFinished());
+		assertThat(events, equalTo(Arrays.asList("trip", "a1", "b0", "trip", "a1", "b0")));
+	}
+
+	@Test
+	public void testWaitsForAll() {
+		final CoCyclicBarrier barrier = new CoCyclicBarrier(3);
+		final List<Coroutine> coroutines = new ArrayList<>();
+		for (int i = 0; i < 3; ++i)
+			coroutines.add(new Coroutine(() -> {
+				barrier.await(executor);
+			}));
+		coroutines.get(0).process();
+		coroutines.get(1).process();
+		assertFalse(coroutines.get(0).isFinished());
+		coroutines.get(2).process();
+		coroutines.forEach(c -> assertTrue(c.isFinished()));
+	}
+}
@@ -0,0 +1,56 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoPhaser {
+	private final ManualExecutor executor;
+
+	public TestCoPhaser() {
+		this.executor = new ManualExecutor();
+	}
+
+	@Test
+	public void testAdvance() {
+		final CoPhaser phaser = new CoPhaser(3);
+		final List<Integer> phases = new ArrayList<>();
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			phases.add(phaser.arriveAndAwaitAdvance(executor));
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			phases.add(phaser.arriveAndAwaitAdvance(executor));
+		});
+		coroutine1.process();
+		coroutine2.process();
+		assertFalse(coroutine1.isFinished());
+		assertThat(phaser.arrive(), equalTo(0));
+		assertTrue(coroutine1.isFinished());
+		assertTrue(coroutine2.isFinished());
+		assertThat(phases, equalTo(Arrays.asList(1, 1)));
+		assertThat(phaser.getPhase(), equalTo(1));
+	}
+
+	@Test
+	public void testDeregisterTerminates() {
+		final CoPhaser phaser = new CoPhaser(2);
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertTrue(phaser.awaitAdvance(executor, 0) < 0);
+		});
+		coroutine.process();
+		phaser.arriveAndDeregister();
+		assertFalse(coroutine.isFinished());
+		phaser.arriveAndDeregister();
+		assertTrue(coroutine.isFinished());
+		assertTrue(phaser.isTerminated());
+		assertThat(phaser.register(), equalTo(phaser.getPhase()));
+		assertThat(phaser.getRegisteredParties(), equalTo(0));
+	}
+}
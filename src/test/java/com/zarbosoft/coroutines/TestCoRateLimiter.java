@@ -0,0 +1,108 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoRateLimiter {
+	private final ManualExecutor executor;
+
+	public TestCoRateLimiter() {
+		this.executor = new ManualExecutor();
+	}
+
+	private CoRateLimiter limiter(final double rate, final double burst, final long warmupMillis) {
+		final LocalDateTime epoch = executor.now;
+		return new CoRateLimiter(executor,
+				rate,
+				burst,
+				TimeUnit.MILLISECONDS.toNanos(warmupMillis),
+				() -> Duration.between(epoch, executor.now).toNanos()
+		);
+	}
+
+	private void advance(final int millis) {
+		new Coroutine(() -> {
+			executor.advance(Duration.ofMillis(millis));
+		}).process();
+	}
+
+	@Test
+	public void testBurst() {
+		final CoRateLimiter limiter = limiter(10, 2, 0);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		advance(101);
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testWaitersInOrderOneTimer() {
+		final CoRateLimiter limiter = limiter(10, 1, 0);
+		assertTrue(limiter.tryAcquire());
+		final List<Integer> order = new ArrayList<>();
+		final List<Coroutine> coroutines = new ArrayList<>();
+		for (int i = 0; i < 3; ++i) {
+			final int id = i;
+			final Coroutine coroutine = new Coroutine(() -> {
+				limiter.acquire(executor);
+				order.add(id);
+			});
+			coroutine.process();
+			coroutines.add(coroutine);
+		}
+		assertThat(executor.scheduled.size(), equalTo(1));
+		assertFalse(limiter.tryAcquire());
+		advance(101);
+		assertThat(order, equalTo(Arrays.asList(0)));
+		assertThat(executor.scheduled.size(), equalTo(1));
+		advance(101);
+		advance(101);
+		assertThat(order, equalTo(Arrays.asList(0, 1, 2)));
+		assertThat(executor.scheduled.size(), equalTo(0));
+		coroutines.forEach(c -> assertTrue(c.isFinished()));
+	}
+
+	@Test
+	public void testDebt() {
+		final CoRateLimiter limiter = limiter(10, 1, 0);
+		final Coroutine coroutine = new Coroutine(() -> {
+			limiter.acquire(executor, 3);
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		advance(201);
+		assertFalse(limiter.tryAcquire());
+		advance(101);
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testWarmup() {
+		final CoRateLimiter limiter = limiter(10, 10, 1000);
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		// Cold rate is a third, so a token takes more than 100ms
+		advance(150);
+		assertFalse(limiter.tryAcquire());
+		advance(1000);
+		int taken = 0;
+		while (limiter.tryAcquire())
+			taken += 1;
+		advance(101);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(taken > 0);
+	}
+}
@@ -0,0 +1,125 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoStream {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+
+	public TestCoStream() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+	}
+
+	@Test
+	public void testFused() {
+		final Common.Mutable<List<List<Integer>>> out = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = CoStream
+					.of(Arrays.asList(1, 2, 3, 4, 5, 6, 7))
+					.map(v -> v * 10)
+					.map(v -> v + 1)
+					.filter(v -> v != 31)
+					.window(2)
+					.toList();
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(out.value,
+				equalTo(Arrays.asList(Arrays.asList(11, 21), Arrays.asList(41, 51), Arrays.asList(61, 71)))
+		);
+	}
+
+	@Test
+	public void testFusedMapEnds() {
+		final Common.Mutable<List<Integer>> out = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = CoStream
+					.of(Arrays.asList(1, 2, 3, 4))
+					.map(v -> v == 3 ? null : v * 10)
+					.map(v -> v + 1)
+					.toList();
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(out.value, equalTo(Arrays.asList(11, 21)));
+	}
+
+	@Test
+	public void testBuffer() {
+		final List<Integer> produced = new ArrayList<>();
+		final List<Integer> consumed = new ArrayList<>();
+		final CoStream<Integer> stream = CoStream.of(Arrays.asList(1, 2, 3, 4)).map(v -> {
+			produced.add(v);
+			return v;
+		}).buffer(executor, 2);
+		assertThat(produced, equalTo(Arrays.asList(1, 2, 3)));
+		final Coroutine coroutine = new Coroutine(() -> {
+			stream.forEach(v -> {
+				consumed.add(v);
+				gate.stop(v);
+			});
+		});
+		coroutine.process();
+		assertThat(consumed, equalTo(Arrays.asList(1)));
+		assertThat(produced, equalTo(Arrays.asList(1, 2, 3, 4)));
+		gate.start(1);
+		gate.start(2);
+		gate.start(3);
+		gate.start(4);
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testMerge() {
+		final CoChannel<Integer> a = new CoChannel<>(executor, 0);
+		final CoChannel<Integer> b = new CoChannel<>(executor, 0);
+		final List<Integer> consumed = new ArrayList<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			CoStream.merge(executor, 0, CoStream.of(a), CoStream.of(b)).forEach(consumed::add);
+		});
+		coroutine.process();
+		new Coroutine(() -> {
+			b.send(1);
+			a.send(2);
+			b.send(3);
+			a.close();
+			b.close();
+		}).process();
+		assertTrue(coroutine.isFinished());
+		assertThat(consumed, equalTo(Arrays.asList(1, 2, 3)));
+	}
+
+	@Test
+	public void testWindowTime() {
+		final CoChannel<Integer> source = new CoChannel<>(executor, 0);
+		final List<List<Integer>> consumed = new ArrayList<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			CoStream.of(source).window(executor, 3, 1, TimeUnit.HOURS).forEach(consumed::add);
+		});
+		coroutine.process();
+		new Coroutine(() -> {
+			source.send(1);
+			source.send(2);
+			executor.advance(Duration.ofHours(2));
+			source.send(3);
+			source.send(4);
+			source.send(5);
+			source.send(6);
+			source.close();
+		}).process();
+		assertTrue(coroutine.isFinished());
+		assertThat(consumed, equalTo(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4, 5), Arrays.asList(6))));
+	}
+}
@@ -0,0 +1,99 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoSubscriber {
+	private final ManualExecutor executor = new ManualExecutor();
+
+	static class TestError extends RuntimeException {
+	}
+
+	static class ManualSubscription implements Flow.Subscription {
+		final List<Long> requests = new ArrayList<>();
+		boolean cancelled = false;
+
+		@Override
+		public void request(final long n) {
+			requests.add(n);
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	@Test
+	public void testBatchedRequests() {
+		final CoSubscriber<Integer> subscriber = new CoSubscriber<>(executor, 4);
+		final ManualSubscription subscription = new ManualSubscription();
+		subscriber.onSubscribe(subscription);
+		assertThat(subscription.requests, equalTo(Arrays.asList(4L)));
+		final List<Integer> read = new ArrayList<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			Integer value;
+			while ((value = subscriber.next()) != null)
+				read.add(value);
+		});
+		coroutine.process();
+		subscriber.onNext(0);
+		subscriber.onNext(1);
+		assertThat(subscription.requests, equalTo(Arrays.asList(4L)));
+		subscriber.onNext(2);
+		assertThat(subscription.requests, equalTo(Arrays.asList(4L, 3L)));
+		subscriber.onComplete();
+		assertTrue(coroutine.isFinished());
+		assertThat(read, equalTo(Arrays.asList(0, 1, 2)));
+	}
+
+	@Test
+	public void testBufferedBeforeRead() {
+		final CoSubscriber<Integer> subscriber = new CoSubscriber<>(executor, 4);
+		subscriber.onSubscribe(new ManualSubscription());
+		subscriber.onNext(0);
+		subscriber.onNext(1);
+		subscriber.onError(new TestError());
+		final List<Integer> read = new ArrayList<>();
+		final Common.Mutable<Boolean> caught = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				while (true)
+					read.add(subscriber.next());
+			} catch (final TestError e) {
+				caught.value = true;
+			}
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(read, equalTo(Arrays.asList(0, 1)));
+		assertTrue(caught.value);
+	}
+
+	@Test
+	public void testFromGenerator() {
+		final CoSubscriber<Integer> subscriber = new CoSubscriber<>(executor, 2);
+		new GeneratorPublisher<Integer>(executor, g -> {
+			for (int i = 0; i < 5; ++i)
+				g.yieldValue(i);
+		}).subscribe(subscriber);
+		final List<Integer> read = new ArrayList<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			Integer value;
+			while ((value = subscriber.next()) != null)
+				read.add(value);
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(read, equalTo(Arrays.asList(0, 1, 2, 3, 4)));
+	}
+}
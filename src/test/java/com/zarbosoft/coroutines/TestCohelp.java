@@ -0,0 +1,121 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCohelp {
+	static class TestError extends RuntimeException {
+	}
+
+	@Test
+	public void testUnblockCompleteNoSuspend() {
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(Cohelp.unblock(CompletableFuture.completedFuture(4)), equalTo(4));
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testUnblockIncomplete() {
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(Cohelp.unblock(future), equalTo(4));
+		});
+		coroutine.process();
+		assertTrue(!coroutine.isFinished());
+		future.complete(4);
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testUnblockException() {
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		final Common.Mutable<Boolean> caught = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				Cohelp.unblock(future);
+			} catch (final TestError e) {
+				caught.value = true;
+			}
+		});
+		coroutine.process();
+		future.completeExceptionally(new TestError());
+		assertTrue(coroutine.isFinished());
+		assertTrue(caught.value);
+	}
+
+	@Test
+	public void testUnblockExecutor() {
+		final List<Runnable> queued = new ArrayList<>();
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(Cohelp.unblock(new ManualExecutor() {
+				@Override
+				public void execute(final Runnable command) {
+					queued.add(command);
+				}
+			}, future), equalTo(4));
+		});
+		coroutine.process();
+		future.complete(4);
+		assertTrue(!coroutine.isFinished());
+		assertThat(queued.size(), equalTo(1));
+		queued.get(0).run();
+		assertTrue(coroutine.isFinished());
+	}
+
+	private static CompletableFuture<Integer> later(final int value) {
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		new Thread(() -> {
+			try {
+				Thread.sleep(10);
+			} catch (final InterruptedException e) {
+			}
+			future.complete(value);
+		}).start();
+		return future;
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockCallerRuns() {
+		final Thread caller = Thread.currentThread();
+		final Common.Mutable<Thread> resumedIn = new Common.Mutable<>();
+		final int out = Cohelp.blockCallerRuns(executor -> {
+			final int value = Cohelp.unblock(executor, later(4));
+			resumedIn.value = Thread.currentThread();
+			return value * 2;
+		});
+		assertThat(out, equalTo(8));
+		assertThat(resumedIn.value, equalTo(caller));
+	}
+
+	@Test(timeout = 10000, expected = TestError.class)
+	public void testBlockCallerRunsException() {
+		Cohelp.blockCallerRuns(executor -> {
+			Cohelp.unblock(executor, later(4));
+			throw new TestError();
+		});
+	}
+
+	@Test(timeout = 10000)
+	public void testBlockCallerRunsForkJoin() {
+		final ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			assertThat(pool.submit(() -> Cohelp.blockCallerRuns(executor -> {
+				return Cohelp.unblock(executor, later(4)) + Cohelp.unblock(executor, later(5));
+			})).join(), equalTo(9));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
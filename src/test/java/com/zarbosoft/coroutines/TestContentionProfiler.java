@@ -0,0 +1,75 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestContentionProfiler {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+
+	public TestContentionProfiler() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+	}
+
+	private void slow(final CriticalSection critical) throws SuspendExecution {
+		critical.call(executor, () -> {
+			gate.stop(1);
+			try {
+				Thread.sleep(5);
+			} catch (final InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return null;
+		});
+	}
+
+	private void fast(final CriticalSection critical) throws SuspendExecution {
+		critical.call(executor, () -> null);
+	}
+
+	@Test
+	public void testRanksCallSites() {
+		final ContentionProfiler profiler = new ContentionProfiler();
+		final CriticalSection critical = new CriticalSection();
+		critical.setProfiler(profiler);
+		final Coroutine coroutine1 = new Coroutine(() -> slow(critical));
+		final Coroutine coroutine2 = new Coroutine(() -> fast(critical));
+		coroutine1.process();
+		coroutine2.process();
+		assertFalse(coroutine2.isFinished());
+		gate.start(1);
+		assertTrue(coroutine2.isFinished());
+		final String report = profiler.report();
+		final int slow = report.indexOf("call at com.zarbosoft.coroutines.TestContentionProfiler.slow");
+		final int fast = report.indexOf("call at com.zarbosoft.coroutines.TestContentionProfiler.fast");
+		assertTrue(report, slow >= 0);
+		assertTrue(report, fast > slow);
+		assertThat(report, containsString("wait: count 1"));
+	}
+
+	@Test
+	public void testReadWrite() {
+		final ContentionProfiler profiler = new ContentionProfiler();
+		final RWCriticalSection critical = new WRCriticalSection();
+		critical.setProfiler(profiler);
+		new Coroutine(() -> {
+			critical.read(executor, () -> null);
+			critical.write(executor, () -> null);
+			critical.tryUniqueWrite(executor, () -> {
+			});
+		}).process();
+		final String report = profiler.report();
+		assertThat(report, containsString("read at com.zarbosoft.coroutines.TestContentionProfiler"));
+		assertThat(report, containsString("write at com.zarbosoft.coroutines.TestContentionProfiler"));
+		assertThat(report, containsString("tryUniqueWrite at com.zarbosoft.coroutines.TestContentionProfiler"));
+		profiler.reset();
+		assertThat(profiler.report(), equalTo(""));
+	}
+}
@@ -0,0 +1,105 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoroutineEventLoop {
+	private final CoroutineEventLoopGroup group;
+
+	public TestCoroutineEventLoop() {
+		this.group = new CoroutineEventLoopGroup(2);
+	}
+
+	private void shutdown() throws InterruptedException {
+		group.shutdown();
+		assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExecuteOnLoop() throws Exception {
+		final CoroutineEventLoop loop = group.get(0);
+		final CompletableFuture<Boolean> result = new CompletableFuture<>();
+		loop.execute(() -> result.complete(CoroutineEventLoop.current() == loop && loop.inLoop()));
+		assertTrue(result.get(5, TimeUnit.SECONDS));
+		assertFalse(loop.inLoop());
+		shutdown();
+	}
+
+	@Test
+	public void testTimersInOrder() throws Exception {
+		final CoroutineEventLoop loop = group.get(0);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(3);
+		for (final int delay : new int[] {30, 10, 20}) {
+			loop.schedule(() -> {
+				order.add(delay);
+				done.countDown();
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertThat(order, equalTo(Arrays.asList(10, 20, 30)));
+		shutdown();
+	}
+
+	@Test
+	public void testPeriodicCancel() throws Exception {
+		final CoroutineEventLoop loop = group.get(0);
+		final CountDownLatch ticks = new CountDownLatch(3);
+		final ScheduledFuture<?> future = loop.scheduleAtFixedRate(ticks::countDown, 0, 5, TimeUnit.MILLISECONDS);
+		assertTrue(ticks.await(5, TimeUnit.SECONDS));
+		assertTrue(future.cancel(false));
+		assertTrue(future.isCancelled());
+		shutdown();
+	}
+
+	@Test
+	public void testCoroutineStaysHome() throws Exception {
+		final CoroutineEventLoop loop = group.get(0);
+		final ExecutorService blocking = Executors.newSingleThreadExecutor();
+		final CompletableFuture<List<Boolean>> result = new CompletableFuture<>();
+		Cohelp.submit(loop, () -> {
+			Cohelp.sleep(loop, 5, TimeUnit.MILLISECONDS);
+			final boolean afterSleep = loop.inLoop();
+			final boolean blockedInLoop = Cohelp.unblock(blocking, loop, () -> loop.inLoop());
+			result.complete(Arrays.asList(afterSleep, blockedInLoop, loop.inLoop()));
+		});
+		assertThat(result.get(5, TimeUnit.SECONDS), equalTo(Arrays.asList(true, false, true)));
+		blocking.shutdown();
+		shutdown();
+	}
+
+	@Test
+	public void testMoveTo() throws Exception {
+		final CoroutineEventLoop first = group.get(0);
+		final CoroutineEventLoop second = group.get(1);
+		final CompletableFuture<List<Boolean>> result = new CompletableFuture<>();
+		Cohelp.submit(first, () -> {
+			final boolean start = first.inLoop();
+			CoroutineEventLoop.moveTo(second);
+			result.complete(Arrays.asList(start, second.inLoop(), CoroutineEventLoop.current() == second));
+		});
+		assertThat(result.get(5, TimeUnit.SECONDS), equalTo(Arrays.asList(true, true, true)));
+		shutdown();
+	}
+
+	@Test
+	public void testForKeyStable() throws Exception {
+		assertTrue(group.forKey("a") == group.forKey("a"));
+		shutdown();
+	}
+}
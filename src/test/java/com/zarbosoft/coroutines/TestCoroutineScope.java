@@ -0,0 +1,282 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestCoroutineScope {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+
+	public TestCoroutineScope() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+	}
+
+	static class TestError extends RuntimeException {
+	}
+
+	@Test
+	public void testJoinNoChildren() {
+		final Coroutine coroutine = new Coroutine(() -> {
+			new CoroutineScope(executor).join();
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testJoinAll() {
+		final Common.Mutable<List<Integer>> results = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			final CoroutineScope scope = new CoroutineScope(executor);
+			final CompletableFuture<Integer> a = scope.fork(() -> {
+				gate.stop(7);
+				return 14;
+			});
+			final CompletableFuture<Integer> b = scope.fork(() -> {
+				gate.stop(8);
+				return 16;
+			});
+			scope.join();
+			results.value = Cohelp.awaitAll(Arrays.asList(a, b));
+		});
+		coroutine.process();
+		gate.start(8);
+		assertTrue(!coroutine.isFinished());
+		gate.start(7);
+		assertTrue(coroutine.isFinished());
+		assertThat(results.value, equalTo(Arrays.asList(14, 16)));
+	}
+
+	@Test
+	public void testJoinAny() {
+		final Common.Mutable<Integer> result = new Common.Mutable<>();
+		final Common.Mutable<Boolean> cancelled = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			final CoroutineScope scope = new CoroutineScope(executor, CoroutineScope.Policy.ANY);
+			scope.fork(() -> {
+				try {
+					gate.stop(7);
+				} catch (final CancellationException e) {
+					cancelled.value = true;
+				}
+				return 14;
+			});
+			scope.fork(() -> {
+				gate.stop(8);
+				return 16;
+			});
+			result.value = scope.joinAny();
+		});
+		coroutine.process();
+		gate.start(8);
+		assertTrue(coroutine.isFinished());
+		assertThat(result.value, equalTo(16));
+		gate.start(7);
+		assertTrue(cancelled.value);
+	}
+
+	@Test
+	public void testJoinAnyFailureFirst() {
+		final Common.Mutable<Integer> result = new Common.Mutable<>();
+		final Common.Mutable<Boolean> cancelled = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			final CoroutineScope scope = new CoroutineScope(executor, CoroutineScope.Policy.ANY);
+			scope.fork(() -> {
+				try {
+					gate.stop(7);
+				} catch (final CancellationException e) {
+					cancelled.value = true;
+				}
+				return 14;
+			});
+			scope.fork(() -> {
+				throw new TestError();
+			});
+			result.value = scope.joinAny();
+		});
+		coroutine.process();
+		assertTrue(!coroutine.isFinished());
+		gate.start(7);
+		assertTrue(coroutine.isFinished());
+		assertThat(cancelled.value, equalTo(false));
+		assertThat(result.value, equalTo(14));
+	}
+
+	@Test
+	public void testJoinAnySuccessBeforeJoin() {
+		final Common.Mutable<Integer> result = new Common.Mutable<>();
+		final Common.Mutable<Boolean> cancelled = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			final CoroutineScope scope = new CoroutineScope(executor, CoroutineScope.Policy.ANY);
+			scope.fork(() -> {
+				try {
+					gate.stop(7);
+				} catch (final CancellationException e) {
+					cancelled.value = true;
+				}
+				return 14;
+			});
+			// Runs to completion immediately in the manual executor, before joinAny
+			scope.fork(() -> 16);
+			result.value = scope.joinAny();
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(result.value, equalTo(16));
+		gate.start(7);
+		assertTrue(cancelled.value);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testJoinAnyRequiresPolicy() {
+		final Coroutine coroutine = new Coroutine(() -> {
+			new CoroutineScope(executor).joinAny();
+		});
+		coroutine.process();
+	}
+
+	@Test
+	public void testFailureCancelsRest() {
+		final Common.Mutable<Boolean> caught = new Common.Mutable<>(false);
+		final Common.Mutable<Boolean> cancelled = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			final CoroutineScope scope = new CoroutineScope(executor);
+			scope.fork(() -> {
+				try {
+					gate.stop(7);
+				} catch (final CancellationException e) {
+					cancelled.value = true;
+				}
+				return 14;
+			});
+			scope.fork(() -> {
+				gate.stop(8);
+				throw new TestError();
+			});
+			try {
+				scope.join();
+			} catch (final TestError e) {
+				caught.value = true;
+			}
+		});
+		coroutine.process();
+		gate.start(8);
+		assertTrue(coroutine.isFinished());
+		assertTrue(caught.value);
+		gate.start(7);
+		assertTrue(cancelled.value);
+	}
+
+	@Test
+	public void testCancelledCleanupSuspends() {
+		final Common.Mutable<Boolean> cancelled = new Common.Mutable<>(false);
+		final Common.Mutable<Boolean> cleanedUp = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			final CoroutineScope scope = new CoroutineScope(executor);
+			scope.fork(() -> {
+				try {
+					gate.stop(7);
+				} catch (final CancellationException e) {
+					cancelled.value = true;
+				} finally {
+					gate.stop(9);
+					cleanedUp.value = true;
+				}
+				return 14;
+			});
+			scope.fork(() -> {
+				gate.stop(8);
+				throw new TestError();
+			});
+			try {
+				scope.join();
+			} catch (final TestError e) {
+			}
+		});
+		coroutine.process();
+		gate.start(8);
+		assertTrue(coroutine.isFinished());
+		gate.start(7);
+		assertTrue(cancelled.value);
+		assertThat(cleanedUp.value, equalTo(false));
+		// The cancellation was already raised, so the cleanup resumes normally
+		gate.start(9);
+		assertTrue(cleanedUp.value);
+	}
+
+	@Test
+	public void testAwaitAllAlreadyFailed() {
+		final CompletableFuture<Integer> never = new CompletableFuture<>();
+		final CompletableFuture<Integer> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new TestError());
+		final Common.Mutable<Boolean> caught = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				Cohelp.awaitAll(Arrays.asList(never, failed));
+			} catch (final TestError e) {
+				caught.value = true;
+			}
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertTrue(caught.value);
+	}
+
+	@Test
+	public void testAwaitAllComplete() {
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(Cohelp.awaitAll(Arrays.asList(CompletableFuture.completedFuture(1),
+					CompletableFuture.completedFuture(2)
+			)), equalTo(Arrays.asList(1, 2)));
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testAwaitAllFailure() {
+		final CompletableFuture<Integer> a = new CompletableFuture<>();
+		final CompletableFuture<Integer> b = new CompletableFuture<>();
+		final Common.Mutable<Boolean> caught = new Common.Mutable<>(false);
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				Cohelp.awaitAll(Arrays.asList(a, b));
+			} catch (final TestError e) {
+				caught.value = true;
+			}
+		});
+		coroutine.process();
+		b.completeExceptionally(new TestError());
+		assertTrue(coroutine.isFinished());
+		assertTrue(caught.value);
+		a.complete(3);
+	}
+
+	@Test
+	public void testMapConcurrent() {
+		final Common.Mutable<List<Integer>> results = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			results.value = Cohelp.mapConcurrent(executor, Arrays.asList(5, 6, 7), 2, v -> {
+				gate.stop(v);
+				return v * 2;
+			});
+		});
+		coroutine.process();
+		gate.start(6);
+		gate.start(7);
+		assertTrue(!coroutine.isFinished());
+		gate.start(5);
+		assertTrue(coroutine.isFinished());
+		assertThat(results.value, equalTo(Arrays.asList(10, 12, 14)));
+	}
+}
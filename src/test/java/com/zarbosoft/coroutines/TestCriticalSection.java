@@ -5,10 +5,12 @@ import com.zarbosoft.rendaw.common.Common;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.number.OrderingComparison.greaterThan;
@@ -98,6 +100,51 @@ public class TestCriticalSection {
 		assertTrue(coroutine2.isFinished());
 	}
 
+	@Test
+	public void testCriticalSectionPriority() {
+		final CriticalSection critical = new CriticalSection(1, TimeUnit.HOURS);
+		final List<Integer> order = new ArrayList<>();
+		final List<Coroutine> coroutines = new ArrayList<>();
+		for (final int priority : new int[] {0, 0, 1}) {
+			final int id = coroutines.size() + 5;
+			coroutines.add(new Coroutine(() -> {
+				critical.call(executor, priority, () -> {
+					order.add(id);
+					gate.stop(id);
+					return null;
+				});
+			}));
+		}
+		coroutines.forEach(Coroutine::process);
+		gate.start(5);
+		gate.start(7);
+		gate.start(6);
+		assertThat(order, equalTo(Arrays.asList(5, 7, 6)));
+		coroutines.forEach(c -> assertTrue(c.isFinished()));
+	}
+
+	@Test
+	public void testCriticalSectionNoAgingIsFifo() {
+		final CriticalSection critical = new CriticalSection(0, TimeUnit.NANOSECONDS);
+		final List<Integer> order = new ArrayList<>();
+		final List<Coroutine> coroutines = new ArrayList<>();
+		for (final int priority : new int[] {0, 0, 1}) {
+			final int id = coroutines.size() + 5;
+			coroutines.add(new Coroutine(() -> {
+				critical.call(executor, priority, () -> {
+					order.add(id);
+					gate.stop(id);
+					return null;
+				});
+			}));
+		}
+		coroutines.forEach(Coroutine::process);
+		gate.start(5);
+		gate.start(6);
+		gate.start(7);
+		assertThat(order, equalTo(Arrays.asList(5, 6, 7)));
+	}
+
 	static class Gate {
 		Map<Integer, Coroutine> gates = new HashMap<>();
 
@@ -0,0 +1,81 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TestFiles {
+	private static String string(final ByteBuffer buffer) {
+		return StandardCharsets.UTF_8.decode(buffer).toString();
+	}
+
+	@Test(timeout = 10000)
+	public void testAsynchronousWriteRead() throws IOException {
+		final Path path = Files.createTempFile("test", ".txt");
+		try (
+				final AsynchronousFileChannel channel = AsynchronousFileChannel.open(path,
+						StandardOpenOption.READ,
+						StandardOpenOption.WRITE
+				)
+		) {
+			final String read = Cohelp.block(() -> {
+				CoFiles.writeFully(channel, StandardCharsets.UTF_8.encode("hello world"), 0);
+				final ByteBuffer buffer = ByteBuffer.allocate(5);
+				assertThat(CoFiles.readFully(channel, buffer, 6), equalTo(5));
+				buffer.flip();
+				return string(buffer);
+			});
+			assertThat(read, equalTo("world"));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testMappedStream() throws IOException {
+		final Path path = Files.createTempFile("test", ".txt");
+		Files.write(path, "abcdefghij".getBytes(StandardCharsets.UTF_8));
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final List<String> chunks =
+					new MappedFileReader(channel, 4, 2).stream().map(TestFiles::string).collect(Collectors.toList());
+			assertThat(String.join(",", chunks), equalTo("ab,cd,ef,gh,ij"));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testMappedNext() throws IOException {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final Path path = Files.createTempFile("test", ".txt");
+		Files.write(path, "abcdefg".getBytes(StandardCharsets.UTF_8));
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final MappedFileReader reader = new MappedFileReader(channel, 4, 2);
+			final String read = Cohelp.block(() -> {
+				final StringBuilder out = new StringBuilder();
+				ByteBuffer chunk;
+				while ((chunk = reader.next(executor)) != null)
+					out.append(string(chunk)).append(",");
+				return out.toString();
+			});
+			assertThat(read, equalTo("ab,cd,ef,g,"));
+		} finally {
+			executor.shutdown();
+			Files.delete(path);
+		}
+	}
+}
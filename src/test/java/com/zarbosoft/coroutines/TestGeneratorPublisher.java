@@ -0,0 +1,89 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestGeneratorPublisher {
+	private final ManualExecutor executor = new ManualExecutor();
+
+	static class Collector implements Flow.Subscriber<Integer> {
+		Flow.Subscription subscription;
+		final List<Integer> values = new ArrayList<>();
+		boolean complete = false;
+		Throwable error = null;
+
+		@Override
+		public void onSubscribe(final Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(final Integer item) {
+			values.add(item);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			complete = true;
+		}
+	}
+
+	@Test
+	public void testDemand() {
+		final List<Integer> produced = new ArrayList<>();
+		final GeneratorPublisher<Integer> publisher = new GeneratorPublisher<>(executor, g -> {
+			for (int i = 0; i < 3; ++i) {
+				produced.add(i);
+				g.yieldValue(i);
+			}
+		});
+		final Collector collector = new Collector();
+		publisher.subscribe(collector);
+		assertThat(produced.size(), equalTo(0));
+		collector.subscription.request(2);
+		assertThat(collector.values, equalTo(Arrays.asList(0, 1)));
+		assertThat(produced, equalTo(Arrays.asList(0, 1)));
+		collector.subscription.request(5);
+		assertThat(collector.values, equalTo(Arrays.asList(0, 1, 2)));
+		assertTrue(collector.complete);
+	}
+
+	@Test
+	public void testCancel() {
+		final GeneratorPublisher<Integer> publisher = new GeneratorPublisher<>(executor, g -> {
+			g.yieldValue(0);
+			g.yieldValue(1);
+		});
+		final Collector collector = new Collector();
+		publisher.subscribe(collector);
+		collector.subscription.request(1);
+		collector.subscription.cancel();
+		collector.subscription.request(1);
+		assertThat(collector.values, equalTo(Arrays.asList(0)));
+		assertTrue(!collector.complete);
+	}
+
+	@Test
+	public void testInvalidRequest() {
+		final GeneratorPublisher<Integer> publisher = new GeneratorPublisher<>(executor, g -> {
+			g.yieldValue(0);
+		});
+		final Collector collector = new Collector();
+		publisher.subscribe(collector);
+		collector.subscription.request(0);
+		assertTrue(collector.error instanceof IllegalArgumentException);
+	}
+}
@@ -0,0 +1,36 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class TestHistogram {
+	@Test
+	public void testPercentiles() {
+		final Histogram histogram = new Histogram();
+		for (long i = 1; i <= 100000; ++i)
+			histogram.record(i * 1000);
+		assertThat(histogram.count(), equalTo(100000L));
+		assertThat(histogram.max(), equalTo(100000000L));
+		for (final double percentile : new double[] {1, 50, 99, 99.9}) {
+			final long exact = (long) (percentile * 1000) * 1000;
+			assertThat(histogram.percentile(percentile), greaterThanOrEqualTo(exact));
+			assertThat(histogram.percentile(percentile), lessThanOrEqualTo(exact + exact / 16));
+		}
+		assertThat(histogram.percentile(100), equalTo(100000000L));
+	}
+
+	@Test
+	public void testSmallValuesExact() {
+		final Histogram histogram = new Histogram();
+		for (long i = 0; i < 16; ++i)
+			histogram.record(i);
+		assertThat(histogram.percentile(50), equalTo(7L));
+		histogram.reset();
+		assertThat(histogram.count(), equalTo(0L));
+		assertThat(histogram.percentile(50), equalTo(0L));
+	}
+}
@@ -0,0 +1,139 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyedCriticalSection {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+
+	public TestKeyedCriticalSection() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+	}
+
+	@Test
+	public void testUncontendedLeavesNothing() {
+		final KeyedCriticalSection<String> critical = new KeyedCriticalSection<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(critical.call("a", executor, () -> {
+				assertThat(critical.size(), equalTo(1));
+				return 4;
+			}), equalTo(4));
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(critical.size(), equalTo(0));
+	}
+
+	@Test
+	public void testSameKeyExcludes() {
+		final KeyedCriticalSection<String> critical = new KeyedCriticalSection<>();
+		final List<Integer> order = new ArrayList<>();
+		final List<Coroutine> coroutines = new ArrayList<>();
+		for (int i = 0; i < 3; ++i) {
+			final int id = i;
+			final Coroutine coroutine = new Coroutine(() -> {
+				critical.call("a", executor, () -> {
+					gate.stop(id);
+					order.add(id);
+					return null;
+				});
+			});
+			coroutine.process();
+			coroutines.add(coroutine);
+		}
+		assertThat(critical.size(), equalTo(1));
+		gate.start(0);
+		assertFalse(coroutines.get(2).isFinished());
+		gate.start(1);
+		gate.start(2);
+		assertThat(order, equalTo(Arrays.asList(0, 1, 2)));
+		coroutines.forEach(c -> assertTrue(c.isFinished()));
+		assertThat(critical.size(), equalTo(0));
+	}
+
+	@Test
+	public void testDifferentKeysIndependent() {
+		final KeyedCriticalSection<String> critical = new KeyedCriticalSection<>();
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			critical.call("a", executor, () -> {
+				gate.stop(1);
+				return null;
+			});
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			critical.call("b", executor, () -> {
+				gate.stop(2);
+				return null;
+			});
+		});
+		coroutine1.process();
+		coroutine2.process();
+		assertThat(critical.size(), equalTo(2));
+		gate.start(2);
+		assertTrue(coroutine2.isFinished());
+		gate.start(1);
+		assertTrue(coroutine1.isFinished());
+		assertThat(critical.size(), equalTo(0));
+	}
+
+	@Test
+	public void testWaiterErrorReleases() {
+		final KeyedCriticalSection<String> critical = new KeyedCriticalSection<>();
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			critical.call("a", executor, () -> {
+				gate.stop(1);
+				return null;
+			});
+		});
+		final boolean[] caught = new boolean[] {false};
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			try {
+				critical.call("a", executor, () -> {
+					throw new IllegalStateException();
+				});
+			} catch (final IllegalStateException e) {
+				caught[0] = true;
+			}
+		});
+		coroutine1.process();
+		coroutine2.process();
+		gate.start(1);
+		assertTrue(caught[0]);
+		assertTrue(coroutine2.isFinished());
+		assertThat(critical.size(), equalTo(0));
+	}
+
+	@Test
+	public void testStriped() {
+		final KeyedCriticalSection<Integer> critical = new KeyedCriticalSection<>(1);
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			critical.call(1, executor, () -> {
+				gate.stop(1);
+				return null;
+			});
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			critical.call(2, executor, () -> {
+				gate.stop(2);
+				return null;
+			});
+		});
+		coroutine1.process();
+		coroutine2.process();
+		// One stripe, so different keys still exclude each other
+		gate.start(1);
+		assertTrue(coroutine1.isFinished());
+		gate.start(2);
+		assertTrue(coroutine2.isFinished());
+	}
+}
@@ -0,0 +1,92 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyedRWCriticalSection {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+	private final KeyedRWCriticalSection<String> critical;
+	private final List<String> order = new ArrayList<>();
+
+	public TestKeyedRWCriticalSection() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+		this.critical = new KeyedRWCriticalSection<>();
+	}
+
+	private Coroutine start(final String key, final boolean read, final int id) {
+		final Coroutine coroutine = new Coroutine(() -> {
+			final SuspendableSupplier<Object> method = () -> {
+				order.add((read ? "r" : "w") + id);
+				gate.stop(id);
+				return null;
+			};
+			if (read)
+				critical.read(key, executor, method);
+			else
+				critical.write(key, executor, method);
+		});
+		coroutine.process();
+		return coroutine;
+	}
+
+	@Test
+	public void testReadersShare() {
+		final Coroutine r1 = start("a", true, 1);
+		final Coroutine r2 = start("a", true, 2);
+		assertThat(order, equalTo(Arrays.asList("r1", "r2")));
+		assertThat(critical.size(), equalTo(1));
+		gate.start(1);
+		gate.start(2);
+		assertTrue(r1.isFinished());
+		assertTrue(r2.isFinished());
+		assertThat(critical.size(), equalTo(0));
+	}
+
+	@Test
+	public void testWriterWaitsForReaders() {
+		final Coroutine r1 = start("a", true, 1);
+		final Coroutine w2 = start("a", false, 2);
+		final Coroutine r3 = start("a", true, 3);
+		assertThat(order, equalTo(Arrays.asList("r1", "r3")));
+		gate.start(1);
+		assertThat(order, equalTo(Arrays.asList("r1", "r3")));
+		gate.start(3);
+		assertThat(order, equalTo(Arrays.asList("r1", "r3", "w2")));
+		gate.start(2);
+		assertTrue(r1.isFinished());
+		assertTrue(w2.isFinished());
+		assertTrue(r3.isFinished());
+		assertThat(critical.size(), equalTo(0));
+	}
+
+	@Test
+	public void testReadersWaitForWriter() {
+		final Coroutine w1 = start("a", false, 1);
+		final Coroutine r2 = start("a", true, 2);
+		final Coroutine r3 = start("a", true, 3);
+		final Coroutine w4 = start("a", false, 4);
+		final Coroutine other = start("b", false, 5);
+		assertThat(order, equalTo(Arrays.asList("w1", "w5")));
+		gate.start(1);
+		assertThat(order, equalTo(Arrays.asList("w1", "w5", "r2", "r3")));
+		gate.start(2);
+		assertFalse(w4.isFinished());
+		gate.start(3);
+		assertThat(order, equalTo(Arrays.asList("w1", "w5", "r2", "r3", "w4")));
+		gate.start(4);
+		gate.start(5);
+		for (final Coroutine coroutine : Arrays.asList(w1, r2, r3, w4, other))
+			assertTrue(coroutine.isFinished());
+		assertThat(critical.size(), equalTo(0));
+	}
+}
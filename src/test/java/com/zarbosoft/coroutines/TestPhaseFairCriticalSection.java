@@ -0,0 +1,104 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestPhaseFairCriticalSection {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+
+	public TestPhaseFairCriticalSection() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+	}
+
+	private Coroutine read(final RWCriticalSection critical, final int id) {
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(critical.read(executor, () -> {
+				gate.stop(id);
+				return id * 2;
+			}), equalTo(id * 2));
+		});
+		coroutine.process();
+		return coroutine;
+	}
+
+	private Coroutine write(final RWCriticalSection critical, final int id) {
+		final Coroutine coroutine = new Coroutine(() -> {
+			assertThat(critical.write(executor, () -> {
+				gate.stop(id);
+				return id * 2;
+			}), equalTo(id * 2));
+		});
+		coroutine.process();
+		return coroutine;
+	}
+
+	@Test
+	public void testWriterNotStarved() {
+		final PhaseFairCriticalSection critical = new PhaseFairCriticalSection();
+		final Coroutine reader1 = read(critical, 1);
+		final Coroutine writer = write(critical, 2);
+		final Coroutine reader2 = read(critical, 3);
+		gate.start(1);
+		assertTrue(reader1.isFinished());
+		gate.start(2);
+		assertTrue(writer.isFinished());
+		assertFalse(reader2.isFinished());
+		gate.start(3);
+		assertTrue(reader2.isFinished());
+		assertThat(critical.getWriterWaits(), equalTo(1L));
+		assertThat(critical.getReaderWaits(), equalTo(1L));
+	}
+
+	@Test
+	public void testReaderBatch() {
+		final PhaseFairCriticalSection critical = new PhaseFairCriticalSection(1, 1);
+		final Coroutine writer1 = write(critical, 1);
+		final Coroutine reader1 = read(critical, 2);
+		final Coroutine reader2 = read(critical, 3);
+		final Coroutine writer2 = write(critical, 4);
+		gate.start(1);
+		assertTrue(writer1.isFinished());
+		gate.start(2);
+		assertTrue(reader1.isFinished());
+		assertFalse(reader2.isFinished());
+		gate.start(4);
+		assertTrue(writer2.isFinished());
+		gate.start(3);
+		assertTrue(reader2.isFinished());
+	}
+
+	@Test
+	public void testWriterBatch() {
+		final PhaseFairCriticalSection critical = new PhaseFairCriticalSection(Integer.MAX_VALUE, 2);
+		final Coroutine writer1 = write(critical, 1);
+		final Coroutine reader = read(critical, 2);
+		final Coroutine writer2 = write(critical, 3);
+		final Coroutine writer3 = write(critical, 4);
+		gate.start(1);
+		assertTrue(writer1.isFinished());
+		gate.start(3);
+		assertTrue(writer2.isFinished());
+		gate.start(2);
+		assertTrue(reader.isFinished());
+		gate.start(4);
+		assertTrue(writer3.isFinished());
+	}
+
+	@Test
+	public void testReadersShareWithoutWriters() {
+		final PhaseFairCriticalSection critical = new PhaseFairCriticalSection(1, 1);
+		final Coroutine reader1 = read(critical, 1);
+		final Coroutine reader2 = read(critical, 2);
+		gate.start(2);
+		assertTrue(reader2.isFinished());
+		gate.start(1);
+		assertTrue(reader1.isFinished());
+		assertThat(critical.getReaderWaits(), equalTo(0L));
+	}
+}
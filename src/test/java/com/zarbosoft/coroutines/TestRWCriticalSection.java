@@ -419,4 +419,30 @@ public class TestRWCriticalSection {
 		assertTrue(coroutine3.isFinished());
 		assertTrue(coroutine4.isFinished());
 	}
+
+	@Test
+	public void testWriterPriority() {
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			assertThat(invokeRead(13), equalTo(26));
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			assertThat(invokeWrite(14), equalTo(28));
+		});
+		final Coroutine coroutine3 = new Coroutine(() -> {
+			assertThat(critical.write(executor, 1, () -> {
+				gate.stop(15);
+				return 30;
+			}), equalTo(30));
+		});
+		coroutine1.process();
+		coroutine2.process();
+		coroutine3.process();
+		gate.start(13);
+		assertTrue(coroutine1.isFinished());
+		gate.start(15);
+		assertTrue(coroutine3.isFinished());
+		assertTrue(!coroutine2.isFinished());
+		gate.start(14);
+		assertTrue(coroutine2.isFinished());
+	}
 }
@@ -0,0 +1,100 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TestRepeatRegistry {
+	private final TestCriticalSection.Gate gate;
+	private final ManualExecutor executor;
+	private final RepeatRegistry registry;
+
+	public TestRepeatRegistry() {
+		this.gate = new TestCriticalSection.Gate();
+		this.executor = new ManualExecutor();
+		this.registry = new RepeatRegistry(executor, 2);
+	}
+
+	private void advance(final int seconds) {
+		new Coroutine(() -> {
+			executor.advance(Duration.ofSeconds(seconds));
+		}).process();
+	}
+
+	@Test
+	public void testSharedTickSpreadsPhases() {
+		final List<Integer> runs = new ArrayList<>();
+		registry.repeat(10, ChronoUnit.SECONDS, () -> runs.add(1));
+		registry.repeat(10, ChronoUnit.SECONDS, () -> runs.add(2));
+		assertThat(executor.scheduled.size(), equalTo(1));
+		advance(5);
+		assertThat(runs, equalTo(Arrays.asList(2)));
+		advance(5);
+		assertThat(runs, equalTo(Arrays.asList(2, 1)));
+		advance(5);
+		assertThat(runs, equalTo(Arrays.asList(2, 1, 2)));
+	}
+
+	@Test
+	public void testSkipWhileRunning() {
+		final List<Integer> runs = new ArrayList<>();
+		final RepeatRegistry.Handle handle = registry.repeat(10, ChronoUnit.SECONDS, () -> {
+			runs.add(runs.size());
+			gate.stop(runs.size());
+		});
+		advance(5);
+		advance(5);
+		assertThat(runs, equalTo(Arrays.asList(0)));
+		advance(5);
+		advance(5);
+		assertThat(handle.getSkipped(), equalTo(1L));
+		gate.start(1);
+		advance(5);
+		advance(5);
+		assertThat(runs, equalTo(Arrays.asList(0, 1)));
+		assertThat(registry.getSkipped(), equalTo(1L));
+	}
+
+	@Test
+	public void testRunsSubmittedSeparately() {
+		final DeferredExecutor executor = new DeferredExecutor();
+		final RepeatRegistry registry = new RepeatRegistry(executor, 1);
+		final List<Integer> runs = new ArrayList<>();
+		registry.repeat(10, ChronoUnit.SECONDS, () -> runs.add(1));
+		registry.repeat(10, ChronoUnit.SECONDS, () -> runs.add(2));
+		new Coroutine(() -> {
+			executor.advance(Duration.ofSeconds(10));
+		}).process();
+		assertThat(runs.size(), equalTo(0));
+		assertThat(executor.deferred.size(), equalTo(2));
+		executor.deferred.get(1).run();
+		assertThat(runs, equalTo(Arrays.asList(2)));
+	}
+
+	@Test
+	public void testCancel() {
+		final List<Integer> runs = new ArrayList<>();
+		final RepeatRegistry.Handle handle = registry.repeat(10, ChronoUnit.SECONDS, () -> runs.add(1));
+		handle.cancel();
+		assertThat(executor.scheduled.size(), equalTo(0));
+		advance(10);
+		assertThat(runs.size(), equalTo(0));
+	}
+
+	private static class DeferredExecutor extends ManualExecutor {
+		final List<Runnable> deferred = new ArrayList<>();
+
+		@Override
+		public void execute(final Runnable command) {
+			deferred.add(command);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.rendaw.common.Common;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestSelect {
+	private final ManualExecutor executor;
+
+	public TestSelect() {
+		this.executor = new ManualExecutor();
+	}
+
+	private void advance(final int seconds) {
+		new Coroutine(() -> {
+			executor.advance(Duration.ofSeconds(seconds));
+		}).process();
+	}
+
+	@Test
+	public void testFutureWins() {
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		final Common.Mutable<String> out = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = new Select<String>(executor)
+					.future(future, v -> "future " + v)
+					.timeout(executor, 5, TimeUnit.SECONDS, () -> "timeout")
+					.await();
+		});
+		coroutine.process();
+		assertThat(executor.scheduled.size(), equalTo(1));
+		future.complete(4);
+		assertTrue(coroutine.isFinished());
+		assertThat(out.value, equalTo("future 4"));
+		assertThat(executor.scheduled.size(), equalTo(0));
+	}
+
+	@Test
+	public void testTimeoutWins() {
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		final Common.Mutable<String> out = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = new Select<String>(executor)
+					.future(future, v -> "future " + v)
+					.timeout(executor, 5, TimeUnit.SECONDS, () -> "timeout")
+					.await();
+		});
+		coroutine.process();
+		advance(5);
+		assertTrue(coroutine.isFinished());
+		assertThat(out.value, equalTo("timeout"));
+		future.complete(4);
+		assertThat(out.value, equalTo("timeout"));
+	}
+
+	@Test
+	public void testLosingChannelKeepsItem() {
+		final CoChannel<Integer> a = new CoChannel<>(executor, 1);
+		final CoChannel<Integer> b = new CoChannel<>(executor, 1);
+		final Common.Mutable<String> out = new Common.Mutable<>();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = new Select<String>(executor)
+					.receive(a, v -> "a " + v)
+					.receive(b, v -> "b " + v)
+					.await();
+		});
+		coroutine.process();
+		new Coroutine(() -> {
+			b.send(7);
+			a.send(8);
+		}).process();
+		assertTrue(coroutine.isFinished());
+		assertThat(out.value, equalTo("b 7"));
+		final Common.Mutable<Integer> rest = new Common.Mutable<>();
+		new Coroutine(() -> {
+			rest.value = a.receive();
+		}).process();
+		assertThat(rest.value, equalTo(8));
+	}
+
+	@Test
+	public void testAlreadyReady() {
+		final CoChannel<Integer> channel = new CoChannel<>(executor, 1);
+		final Common.Mutable<String> out = new Common.Mutable<>();
+		new Coroutine(() -> {
+			channel.send(3);
+		}).process();
+		final Coroutine coroutine = new Coroutine(() -> {
+			out.value = new Select<String>(executor)
+					.future(new CompletableFuture<Integer>(), v -> "future " + v)
+					.receive(channel, v -> "channel " + v)
+					.await();
+		});
+		coroutine.process();
+		assertTrue(coroutine.isFinished());
+		assertThat(out.value, equalTo("channel 3"));
+	}
+
+	@Test
+	public void testClosedWithError() {
+		final CoChannel<Integer> channel = new CoChannel<>(executor, 0);
+		final boolean[] caught = new boolean[] {false};
+		final Coroutine coroutine = new Coroutine(() -> {
+			try {
+				new Select<String>(executor).receive(channel, v -> "channel " + v).await();
+			} catch (final IllegalStateException e) {
+				caught[0] = true;
+			}
+		});
+		coroutine.process();
+		channel.close(new IllegalStateException());
+		assertTrue(caught[0]);
+		assertTrue(coroutine.isFinished());
+	}
+
+	@Test
+	public void testCloseWakesSelects() {
+		final CoChannel<Integer> a = new CoChannel<>(executor, 0);
+		final CoChannel<Integer> b = new CoChannel<>(executor, 0);
+		final Common.Mutable<String> out1 = new Common.Mutable<>();
+		final Common.Mutable<String> out2 = new Common.Mutable<>();
+		final Coroutine coroutine1 = new Coroutine(() -> {
+			out1.value = new Select<String>(executor)
+					.receive(a, v -> "a " + v)
+					.receive(b, v -> "b " + v)
+					.await();
+		});
+		final Coroutine coroutine2 = new Coroutine(() -> {
+			out2.value = new Select<String>(executor).receive(a, v -> "a " + v).await();
+		});
+		coroutine1.process();
+		coroutine2.process();
+		a.close();
+		assertTrue(coroutine1.isFinished());
+		assertTrue(coroutine2.isFinished());
+		assertThat(out1.value, equalTo("a null"));
+		assertThat(out2.value, equalTo("a null"));
+		// The first select already finished, so closing its other channel doesn't deliver again
+		b.close();
+		assertThat(out1.value, equalTo("a null"));
+	}
+}
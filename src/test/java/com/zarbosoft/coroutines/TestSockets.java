@@ -0,0 +1,108 @@
+package com.zarbosoft.coroutines;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TestSockets {
+	@Test(timeout = 10000)
+	public void testLoopbackEcho() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final BufferPool pool = new BufferPool(4, 16);
+		try (
+				final SelectorLoop loop = new SelectorLoop();
+				final CoServerSocketChannel server = CoServerSocketChannel.open(loop,
+						executor,
+						new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)
+				)
+		) {
+			Cohelp.submit(executor, () -> {
+				try (final CoSocketChannel connection = server.accept()) {
+					while (true) {
+						final ByteBuffer buffer = connection.read(pool);
+						if (buffer == null)
+							break;
+						connection.write(buffer);
+						pool.release(buffer);
+					}
+				} catch (final IOException e) {
+					throw new AssertionError(e);
+				}
+			});
+			final String received = Cohelp.block(() -> {
+				try (final CoSocketChannel client = CoSocketChannel.open(loop, executor)) {
+					client.connect(server.channel.getLocalAddress());
+					client.write(StandardCharsets.UTF_8.encode("hello "), StandardCharsets.UTF_8.encode("world"));
+					client.channel.shutdownOutput();
+					final ByteBuffer out = ByteBuffer.allocate(64);
+					while (client.read(out) >= 0) {
+					}
+					out.flip();
+					return StandardCharsets.UTF_8.decode(out).toString();
+				} catch (final IOException e) {
+					throw new AssertionError(e);
+				}
+			});
+			assertThat(received, equalTo("hello world"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testClosedLoop() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (
+				final ServerSocketChannel server = ServerSocketChannel
+						.open()
+						.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+		) {
+			final SelectorLoop loop = new SelectorLoop();
+			final CoSocketChannel client = CoSocketChannel.open(loop, executor);
+			Cohelp.block(() -> {
+				try {
+					client.connect(server.getLocalAddress());
+				} catch (final IOException e) {
+					throw new AssertionError(e);
+				}
+			});
+			try (final SocketChannel accepted = server.accept()) {
+				final CompletableFuture<Boolean> raised = new CompletableFuture<>();
+				Cohelp.submit(executor, () -> {
+					try {
+						client.read(ByteBuffer.allocate(4));
+						raised.complete(false);
+					} catch (final ClosedSelectorException e) {
+						raised.complete(true);
+					} catch (final IOException e) {
+						raised.completeExceptionally(e);
+					}
+				});
+				loop.close();
+				assertTrue(raised.get(5, TimeUnit.SECONDS));
+				while (!loop.stopped)
+					Thread.sleep(1);
+				client.close();
+				assertFalse(client.channel.isOpen());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.zarbosoft.coroutines;
+
+import com.zarbosoft.coroutinescore.SuspendExecution;
+import com.zarbosoft.coroutinescore.SuspendableRunnable;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TestSuspendabilityAnalyzer {
+	private final static String PREFIX = TestSuspendabilityAnalyzer.class.getSimpleName() + "$";
+
+	/**
+	 * Run the analyzer over the nested fixture classes below.
+	 *
+	 * @return Fixtures chosen for instrumentation, without the outer class prefix.
+	 */
+	private Set<String> analyze(final Path report) throws Exception {
+		final Path source = Paths.get(TestSuspendabilityAnalyzer.class.getResource(PREFIX + "Lambdas.class").toURI())
+				.getParent();
+		final Path root = Files.createTempDirectory("suspendability");
+		final Path dest = root.resolve(TestSuspendabilityAnalyzer.class.getPackage().getName().replace('.', '/'));
+		Files.createDirectories(dest);
+		try (final Stream<Path> files = Files.list(source)) {
+			for (final Path file : files
+					.filter(p -> p.getFileName().toString().startsWith(PREFIX))
+					.collect(Collectors.toList()))
+				Files.copy(file, dest.resolve(file.getFileName()));
+		}
+		final Path includes = root.resolve("includes.txt");
+		SuspendabilityAnalyzer.main(new String[] {root.toString(), includes.toString(), report.toString()});
+		return Files
+				.readAllLines(includes)
+				.stream()
+				.map(line -> line.substring(line.lastIndexOf('/') + 1 + PREFIX.length(), line.length() - ".class".length()))
+				.collect(Collectors.toCollection(TreeSet::new));
+	}
+
+	@Test
+	public void testChosen() throws Exception {
+		final Path report = Files.createTempFile("suspendability", ".txt");
+		final Set<String> chosen = analyze(report);
+		assertThat(chosen,
+				equalTo(new TreeSet<>(Arrays.asList(
+						// Lambda body suspends
+						"Lambdas",
+						// Anonymous SuspendableRunnable suspends, its enclosing class doesn't
+						"AnonymousSuspends$1",
+						// Calls an analyzed override that suspends
+						"Sub",
+						"CallsBase",
+						// Target could be overridden by a class that isn't analyzed
+						"CallsOpen",
+						// Interface dispatch
+						"Step",
+						"CallsStep"
+				)))
+		);
+		assertThat(
+				new String(Files.readAllBytes(report)),
+				containsString("warning com/zarbosoft/coroutines/TestSuspendabilityAnalyzer$Swallows.run()V calls")
+		);
+	}
+
+	static class Lambdas {
+		static SuspendableRunnable suspends() {
+			return () -> Coroutine.yield();
+		}
+	}
+
+	static class LambdasNoSuspend {
+		static SuspendableRunnable noop() {
+			return () -> {
+			};
+		}
+	}
+
+	static class AnonymousSuspends {
+		static SuspendableRunnable suspends() {
+			return new SuspendableRunnable() {
+				@Override
+				public void run() throws SuspendExecution {
+					Coroutine.yield();
+				}
+			};
+		}
+	}
+
+	static class AnonymousNoSuspend {
+		static SuspendableRunnable noop() {
+			return new SuspendableRunnable() {
+				@Override
+				public void run() throws SuspendExecution {
+				}
+			};
+		}
+	}
+
+	static class Base {
+		void step() throws SuspendExecution {
+		}
+	}
+
+	static class Sub extends Base {
+		@Override
+		void step() throws SuspendExecution {
+			Coroutine.yield();
+		}
+	}
+
+	static class CallsBase {
+		void call(final Base base) throws SuspendExecution {
+			base.step();
+		}
+	}
+
+	static class Open {
+		void step() throws SuspendExecution {
+		}
+	}
+
+	static class CallsOpen {
+		void call(final Open open) throws SuspendExecution {
+			open.step();
+		}
+	}
+
+	final static class Closed {
+		void step() throws SuspendExecution {
+		}
+	}
+
+	static class CallsClosed {
+		void call(final Closed closed) throws SuspendExecution {
+			closed.step();
+		}
+	}
+
+	interface Step {
+		void step() throws SuspendExecution;
+	}
+
+	static class NoopStep implements Step {
+		@Override
+		public void step() throws SuspendExecution {
+		}
+	}
+
+	static class CallsStep {
+		void call(final Step step) throws SuspendExecution {
+			step.step();
+		}
+	}
+
+	static class Swallows {
+		void run() {
+			try {
+				Coroutine.yield();
+			} catch (final SuspendExecution e) {
+			}
+		}
+	}
+}